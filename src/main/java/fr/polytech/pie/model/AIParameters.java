@@ -1,6 +1,15 @@
 package fr.polytech.pie.model;
 
+import java.util.List;
+
 public record AIParameters(double heightWeight, double linesWeight, double bumpinessWeight, double holesWeight) {
+    /**
+     * Features weighed by the parameters, in the order of the record components.
+     */
+    public static final List<Feature> FEATURES = List.of(
+            Feature.AGGREGATE_HEIGHT, Feature.COMPLETED_LINES, Feature.BUMPINESS, Feature.HOLES
+    );
+
     public static final AIParameters DEFAULT = new AIParameters(
             -0.7303205229567257,
             0.6082323862482821,
@@ -14,4 +23,8 @@ public record AIParameters(double heightWeight, double linesWeight, double bumpi
             -0.1763291765999144,
             -0.5328636979081272
     );
+
+    public Evaluator toEvaluator() {
+        return new LinearEvaluator(FEATURES, new double[]{heightWeight, linesWeight, bumpinessWeight, holesWeight});
+    }
 }
@@ -1,136 +1,908 @@
 package fr.polytech.pie.model;
 
-import fr.polytech.pie.model.threeD.Grid3D;
-import fr.polytech.pie.model.twoD.Grid2D;
-import org.jetbrains.annotations.NotNull;
-
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.DoubleAccumulator;
 
 public class Ai {
-    private final ExecutorService executorService = Executors.newWorkStealingPool();
+    private static final ThreadLocal<Placements> PLACEMENTS = ThreadLocal.withInitial(Placements::new);
+    private static final ThreadLocal<BatchEvaluator> BATCHES = ThreadLocal.withInitial(BatchEvaluator::new);
+    private static final ThreadLocal<ScratchGrid> SCRATCH_GRIDS = ThreadLocal.withInitial(ScratchGrid::new);
+    private static final ThreadLocal<long[]> KEYS = ThreadLocal.withInitial(() -> new long[64]);
+    private static final long LINES_KEY = 0x9E3779B97F4A7C15L;
+    private static final double LOSS_SCORE = -1e6;
+    private static final int DEFAULT_SPLIT_THRESHOLD = 128;
+
+    /**
+     * Threads of the AI, or {@code null} to search on the thread calling {@link #makeMove}.
+     */
+    private final AiExecutor executor;
+    private final ForkJoinPool searchPool;
 
-    private final AIParameters params;
+    private final Evaluator evaluator;
+    /**
+     * Whether the scores depend on the cells of the last placed piece, and not only on the board.
+     */
+    private final boolean scoresDependOnPiece;
     private final Grid grid;
+    private MoveGenerator moveGenerator = MoveGenerator.REACHABLE;
+    private int beamDepth = 0;
+    private int beamWidth = 0;
+    private int splitThreshold = DEFAULT_SPLIT_THRESHOLD;
+    private TranspositionTable transpositionTable;
+    private long move;
+    private volatile boolean timed;
+    private volatile boolean cancelled;
+    private volatile long deadline;
+    private volatile SearchStats lastSearchStats;
+    /**
+     * Candidates of the last beam expansion, and placements of the piece in the last beam search.
+     */
+    private int expandedCandidates;
+    private int beamPlacements;
+
+    private static final class ScratchGrid {
+        Grid grid;
+        Ai owner;
+        long move;
+    }
 
     public Ai(Grid grid, AIParameters parameters) {
+        this(grid, parameters.toEvaluator());
+    }
+
+    public Ai(Grid grid, Evaluator evaluator) {
+        this(grid, evaluator, AiExecutor.getShared());
+    }
+
+    public Ai(Grid grid, Evaluator evaluator, AiExecutor executor) {
+        this(grid, evaluator, executor, executor.getSearchPool());
+    }
+
+    private Ai(Grid grid, Evaluator evaluator, AiExecutor executor, ForkJoinPool searchPool) {
         this.grid = grid;
-        this.params = parameters;
+        this.evaluator = evaluator;
+        this.scoresDependOnPiece = (Feature.mask(evaluator.getFeatures())
+                & (Feature.LANDING_HEIGHT.bit() | Feature.ERODED_CELLS.bit())) != 0;
+        this.executor = executor;
+        this.searchPool = searchPool;
+    }
+
+    /**
+     * AI with the settings of {@code ai}, playing on another grid.
+     */
+    private Ai(Ai ai, Grid grid) {
+        this(grid, ai.evaluator, ai.executor, ai.searchPool);
+        this.moveGenerator = ai.moveGenerator;
+        this.beamDepth = ai.beamDepth;
+        this.beamWidth = ai.beamWidth;
+        this.splitThreshold = ai.splitThreshold;
+        this.transpositionTable = ai.transpositionTable;
+    }
+
+    /**
+     * AI searching on the thread calling {@link #makeMove}, without creating any task. Meant for trainers and
+     * simulations that already run one game per core, where splitting each move as well only adds contention.
+     */
+    public static Ai sequential(Grid grid, Evaluator evaluator) {
+        return new Ai(grid, evaluator, null, null);
     }
 
-    @NotNull
-    private List<Callable<PieceMoveScore>> getCallables(Piece nextPiece, Set<Piece> availablePossibilities) {
-        List<Callable<PieceMoveScore>> tasks = new ArrayList<>();
+    /**
+     * Generator of the placements considered for the piece being played, {@link MoveGenerator#REACHABLE} by default so
+     * that the game only plays moves a player could make. The reachability search costs about a hundred times the
+     * {@link MoveGenerator#HARD_DROP hard drops}, which headless simulations use instead. The lookahead on the next
+     * piece always uses hard drops, as that piece is searched again when it is played.
+     */
+    public void setMoveGenerator(MoveGenerator moveGenerator) {
+        this.moveGenerator = moveGenerator;
+    }
 
-        // Create tasks for evaluating each possible move
-        for (Piece possibility : availablePossibilities) {
-            tasks.add(() -> {
-                Grid threadLocalGrid = grid.copy();
-                double bestScore = Double.NEGATIVE_INFINITY;
+    /**
+     * Replaces the exhaustive two-ply search by a beam search over {@code depth} plies, keeping the {@code beamWidth}
+     * best boards after each ply. Plies past the preview piece are expanded with every shape of
+     * {@link PieceGenerator}, each board being scored by its expectation over the shapes of the best placement of the
+     * shape, and the move leading to the best expectation is played.
+     * A depth below 2 restores the exhaustive two-ply search.
+     */
+    public void setBeamSearch(int depth, int beamWidth) {
+        this.beamDepth = depth;
+        this.beamWidth = Math.max(1, beamWidth);
+    }
 
-                threadLocalGrid.freezePiece(possibility);
-                Set<Piece> nextPiecePossibilities = threadLocalGrid.getPiecesPossibilities(nextPiece);
+    /**
+     * Number of boards below which a task of the two-ply search scores them itself instead of splitting in two.
+     * Lower values balance the work better between cores at the cost of more tasks.
+     */
+    public void setSplitThreshold(int boards) {
+        this.splitThreshold = Math.max(1, boards);
+    }
 
-                for (Piece nextPiecePossibility : nextPiecePossibilities) {
-                    threadLocalGrid.freezePiece(nextPiecePossibility);
-                    double score = getScore(threadLocalGrid);
-                    if (score > bestScore) {
-                        bestScore = score;
-                    }
-                    threadLocalGrid.removePiece(nextPiecePossibility);
-                }
+    /**
+     * Cache of the scores of the boards the two-ply search reaches with the preview piece, shared by the workers.
+     * Different placements may lead to the same board, such as two pieces of the same shape played in either order,
+     * but {@link Benchmark} measures only about 6% of repeated boards, too few to pay for the probes on the default
+     * grids. It must only be shared between AIs using the same evaluator. {@code null} disables it.
+     */
+    public void setTranspositionTable(TranspositionTable transpositionTable) {
+        this.transpositionTable = transpositionTable;
+    }
+
+    public TranspositionTable getTranspositionTable() {
+        return transpositionTable;
+    }
+
+    /**
+     * Copy of the grid owned by the calling worker, brought up to date once per move. Tasks play their moves on it
+     * and undo them before returning. Workers are shared between AIs, so the copy is refreshed whenever another AI
+     * used it in between.
+     */
+    private Grid getScratchGrid() {
+        ScratchGrid scratch = SCRATCH_GRIDS.get();
+        if (scratch.grid == null || scratch.grid.getClass() != grid.getClass()
+                || !scratch.grid.size.equals(grid.size)) {
+            scratch.grid = grid.copy();
+        } else if (scratch.owner != this || scratch.move != move) {
+            scratch.grid.copyFrom(grid);
+        }
+        scratch.owner = this;
+        scratch.move = move;
+        return scratch.grid;
+    }
+
+    /**
+     * Scores the placements of the piece on the grid in one batch, the score of {@code placements.get(i)} being
+     * {@code getScore(i)} of the returned batch. The batch belongs to the calling thread.
+     *
+     * @param clearedLines lines already cleared on the path leading to the grid
+     */
+    private BatchEvaluator scorePlacements(Grid scratch, Piece piece, Placements placements, int clearedLines) {
+        return scorePlacements(scratch, piece, placements, 0, placements.size(), clearedLines);
+    }
 
-                return new PieceMoveScore(possibility, bestScore);
-            });
+    /**
+     * Scores the placements from {@code from} inclusive to {@code to} exclusive, the score of
+     * {@code placements.get(from + i)} being {@code getScore(i)} of the returned batch.
+     */
+    private BatchEvaluator scorePlacements(Grid scratch, Piece piece, Placements placements, int from, int to,
+                                           int clearedLines) {
+        BatchEvaluator batch = BATCHES.get();
+        Piece placed = piece.clone();
+        batch.reset(evaluator);
+
+        for (int i = from; i < to; i++) {
+            Placements.apply(placed, placements.get(i));
+            scratch.freezePiece(placed);
+            batch.add(scratch, placed, clearedLines);
+            scratch.removePiece(placed);
         }
-        return tasks;
+
+        batch.evaluate();
+        return batch;
     }
 
-    private double getScore(Grid gridToScore) {
-        int heights = getHeights(gridToScore);
-        int completedLines = gridToScore.clearFullLines(true);
-        int holes = gridToScore.getHoles();
-        int bumpiness = getBumpiness(gridToScore);
+    /**
+     * Best score of the placements from {@code from} inclusive to {@code to} exclusive, the boards found in the
+     * {@link #setTranspositionTable transposition table} being scored from it and the others in one batch.
+     */
+    private double getBestScore(Grid scratch, Piece piece, Placements placements, int from, int to,
+                                int clearedLines) {
+        if (transpositionTable == null) {
+            return scorePlacements(scratch, piece, placements, from, to, clearedLines).getBestScore();
+        }
+
+        BatchEvaluator batch = BATCHES.get();
+        long[] keys = KEYS.get();
+        if (keys.length < to - from) {
+            keys = new long[to - from];
+            KEYS.set(keys);
+        }
+        Piece placed = piece.clone();
+        long boardHash = scratch.getHash();
+        long linesKey = clearedLines * LINES_KEY;
+        double best = Double.NEGATIVE_INFINITY;
+        batch.reset(evaluator);
+
+        for (int i = from; i < to; i++) {
+            Placements.apply(placed, placements.get(i));
+            scratch.freezePiece(placed);
+            long key = scratch.getHash() ^ linesKey;
+            if (scoresDependOnPiece) {
+                // The hash of the cells of the piece is what freezing it changed in the hash of the board
+                key ^= Long.rotateLeft(scratch.getHash() ^ boardHash, 31);
+            }
+
+            double cached = transpositionTable.get(key);
+            if (Double.isNaN(cached)) {
+                keys[batch.size()] = key;
+                batch.add(scratch, placed, clearedLines);
+            } else {
+                best = Math.max(best, cached);
+            }
+            scratch.removePiece(placed);
+        }
+
+        batch.evaluate();
+        for (int i = 0; i < batch.size(); i++) {
+            transpositionTable.put(keys[i], batch.getScore(i));
+            best = Math.max(best, batch.getScore(i));
+        }
+        return best;
+    }
 
-        return params.heightWeight() * heights +
-                params.linesWeight() * completedLines +
-                params.holesWeight() * holes +
-                params.bumpinessWeight() * bumpiness;
+    /**
+     * Statistics of the last move, or {@code null} before the first one.
+     */
+    public SearchStats getLastSearchStats() {
+        return lastSearchStats;
     }
 
-    private int getBumpiness(Grid gridToScore) {
-        int bumpiness = 0;
+    public void makeMove(Piece piece, Piece nextPiece) {
+        int bestPlacement = -1;
+        long start = System.nanoTime();
+        move++;
+        timed = false;
+
+        try {
+            bestPlacement = beamDepth >= 2 ? beamSearch(piece, nextPiece, beamDepth) : twoPlySearch(piece, nextPiece);
+        } catch (InterruptedException | ExecutionException e) {
+            System.err.println("Error during parallel processing: " + e.getMessage());
+        }
 
-        if (gridToScore instanceof Grid3D grid3D) {
-            for (int x = 0; x < grid3D.getWidth(); x++) {
-                for (int z = 0; z < grid3D.getDepth(); z++) {
-                    if (x < grid3D.getWidth() - 1) {
-                        bumpiness += Math.abs(grid3D.getHeightOfColumn3D(x, z) - grid3D.getHeightOfColumn3D(x + 1, z));
-                    }
-                    if (z < grid3D.getDepth() - 1) {
-                        bumpiness += Math.abs(grid3D.getHeightOfColumn3D(x, z) - grid3D.getHeightOfColumn3D(x, z + 1));
-                    }
+        if (beamDepth >= 2) {
+            lastSearchStats = new SearchStats(beamDepth, beamPlacements, beamPlacements, System.nanoTime() - start,
+                    false);
+        }
+
+        // Fallback to the current piece if an error occurs
+        grid.freezePiece(bestPlacement >= 0 ? grid.toPiece(piece, bestPlacement) : piece);
+    }
+
+    /**
+     * Anytime version of {@link #makeMove(Piece, Piece)}, playing the best move found when the budget runs out.
+     * The placements are first scored on one ply, then searched on two plies best first, then, with a beam search,
+     * on each depth up to the beam depth. The move comes from the deepest search, a two-ply search keeping the best
+     * of the placements it reached and a deeper one being kept only when it completed.
+     *
+     * @param timeBudgetMillis time after which the search stops, the move being played slightly later
+     */
+    public void makeMove(Piece piece, Piece nextPiece, long timeBudgetMillis) {
+        int bestPlacement = findMove(piece, nextPiece, timeBudgetMillis);
+        grid.freezePiece(bestPlacement >= 0 ? grid.toPiece(piece, bestPlacement) : piece);
+    }
+
+    /**
+     * Searches the move {@link #makeMove(Piece, Piece, long)} would play, without playing it.
+     *
+     * @return the placement of the move, or -1 when the piece cannot be placed
+     */
+    public int findMove(Piece piece, Piece nextPiece, long timeBudgetMillis) {
+        long start = System.nanoTime();
+        move++;
+        deadline = start + timeBudgetMillis * 1_000_000;
+        timed = true;
+
+        Placements placements = new Placements();
+        moveGenerator.generate(grid, piece, placements);
+        orderByScore(piece, placements);
+
+        int bestPlacement = placements.size() > 0 ? placements.get(0) : -1;
+        int depth = 1;
+        TwoPlySearch search = new TwoPlySearch(piece, nextPiece, placements);
+
+        if (!isPastDeadline()) {
+            int placement = searchTwoPlies(search);
+            if (placement >= 0) {
+                bestPlacement = placement;
+            }
+            if (search.searched.get() == placements.size()) {
+                depth = 2;
+            }
+        }
+
+        try {
+            for (int beam = 3; beam <= beamDepth && depth == beam - 1 && !isPastDeadline(); beam++) {
+                int placement = beamSearch(piece, nextPiece, beam);
+                if (!isPastDeadline() && placement >= 0) {
+                    bestPlacement = placement;
+                    depth = beam;
                 }
             }
-        } else if (gridToScore instanceof Grid2D grid2D) {
-            for (int i = 0; i < gridToScore.getWidth() - 1; i++) {
-                bumpiness += Math.abs(grid2D.getHeightOfColumn2D(i) - grid2D.getHeightOfColumn2D(i + 1));
+        } catch (InterruptedException | ExecutionException e) {
+            System.err.println("Error during parallel processing: " + e.getMessage());
+        }
+
+        timed = false;
+        lastSearchStats = new SearchStats(depth, search.searched.get(), placements.size(), System.nanoTime() - start,
+                depth < Math.max(2, beamDepth));
+        return bestPlacement;
+    }
+
+    /**
+     * Whether the {@link #setMoveGenerator move generator} lists the placement for the piece in its current state,
+     * which a move searched from an earlier state of the piece may no longer be.
+     */
+    public boolean canPlay(Piece piece, int placement) {
+        Placements placements = new Placements();
+        moveGenerator.generate(grid, piece, placements);
+        for (int i = 0; i < placements.size(); i++) {
+            if (placements.get(i) == placement) {
+                return true;
             }
         }
-        return bumpiness;
+        return false;
+    }
+
+    /**
+     * Runs {@link #findMove} in the background on a copy of the grid, which may thus change meanwhile. Cancelling
+     * the future stops the search as if its budget ran out. The statistics of the search become those of this AI
+     * once it completes.
+     */
+    public CompletableFuture<Integer> findMoveAsync(Piece piece, Piece nextPiece, long timeBudgetMillis) {
+        return findMoveAsync(grid.copy(), piece, nextPiece, timeBudgetMillis);
     }
 
-    private int getHeights(Grid gridToScore) {
-        int heights = 0;
-        if (gridToScore instanceof Grid3D grid3D) {
-            for (int i = 0; i < grid3D.getWidth(); i++) {
-                for (int j = 0; j < grid3D.getDepth(); j++) {
-                    heights += grid3D.getHeightOfColumn3D(i, j);
+    /**
+     * Starts searching the move of {@code nextPiece}, previewing {@code followingPiece}, on the board the grid will
+     * have once {@code piece} is played at the placement, before it is. The speculation is only valid if the grid
+     * ends up with the {@link Speculation#hash() hash} of that board.
+     */
+    public Speculation speculate(Piece piece, int placement, Piece nextPiece, Piece followingPiece,
+                                 long timeBudgetMillis) {
+        Grid board = grid.copy();
+        board.freezePiece(board.toPiece(piece, placement));
+        board.clearFullLines();
+        return new Speculation(board.getHash(), findMoveAsync(board, nextPiece, followingPiece, timeBudgetMillis));
+    }
+
+    private CompletableFuture<Integer> findMoveAsync(Grid board, Piece piece, Piece nextPiece, long timeBudgetMillis) {
+        Ai snapshot = new Ai(this, board);
+        Piece searchedPiece = piece.clone();
+        Piece searchedNextPiece = nextPiece.clone();
+        AiExecutor threads = executor != null ? executor : AiExecutor.getShared();
+
+        CompletableFuture<Integer> future = CompletableFuture.supplyAsync(() -> {
+            int placement = snapshot.findMove(searchedPiece, searchedNextPiece, timeBudgetMillis);
+            lastSearchStats = snapshot.lastSearchStats;
+            return placement;
+        }, threads.getOrchestrationExecutor());
+
+        future.whenComplete((_, _) -> {
+            if (future.isCancelled()) {
+                snapshot.cancelled = true;
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Sorts the placements by decreasing one-ply score, so that a search interrupted by the deadline has looked at
+     * the most promising ones.
+     */
+    private void orderByScore(Piece piece, Placements placements) {
+        BatchEvaluator batch = scorePlacements(getScratchGrid(), piece, placements, 0);
+        List<PieceMoveScore> scores = new ArrayList<>(placements.size());
+        for (int i = 0; i < placements.size(); i++) {
+            scores.add(new PieceMoveScore(placements.get(i), batch.getScore(i)));
+        }
+        scores.sort(Comparator.comparingDouble(PieceMoveScore::score).reversed());
+
+        placements.clear();
+        for (PieceMoveScore score : scores) {
+            int placement = score.placement();
+            placements.add(Placements.orientation(placement), Placements.x(placement), Placements.y(placement),
+                    Placements.z(placement));
+        }
+    }
+
+    private boolean isPastDeadline() {
+        return timed && (cancelled || isPastDeadline(deadline));
+    }
+
+    private static boolean isPastDeadline(long deadline) {
+        return System.nanoTime() - deadline > 0;
+    }
+
+    private int twoPlySearch(Piece piece, Piece nextPiece) {
+        final var availablePlacements = new Placements();
+        moveGenerator.generate(grid, piece, availablePlacements);
+
+        TwoPlySearch search = new TwoPlySearch(piece, nextPiece, availablePlacements);
+        long start = System.nanoTime();
+        int placement = searchTwoPlies(search);
+        lastSearchStats = new SearchStats(2, search.searched.get(), availablePlacements.size(),
+                System.nanoTime() - start, false);
+        return placement;
+    }
+
+    private int searchTwoPlies(TwoPlySearch search) {
+        PieceMoveScore best = searchPool == null
+                ? search.scoreRange(0, search.placements.size())
+                : searchPool.invoke(search.new FirstPlyTask(0, search.placements.size()));
+        return best.placement();
+    }
+
+    /**
+     * Two-ply search of one move. The placements of the piece are split in halves until a task has fewer boards than
+     * the threshold to score, counting the boards of the next piece on the current grid for each placement. A single
+     * placement with too many boards splits the placements of the next piece instead.
+     * Placements whose {@link Evaluator#getDropBound bound} is below the best score found so far are skipped.
+     */
+    private final class TwoPlySearch {
+        private final Piece piece;
+        private final Piece nextPiece;
+        private final int nextCells;
+        private final int nextBoards;
+        private final Placements placements;
+        private final DoubleAccumulator bestScore = new DoubleAccumulator(Math::max, Double.NEGATIVE_INFINITY);
+        private final AtomicInteger searched = new AtomicInteger();
+
+        TwoPlySearch(Piece piece, Piece nextPiece, Placements placements) {
+            this.piece = piece;
+            this.nextPiece = nextPiece;
+            this.nextCells = nextPiece.getCellCount();
+            this.placements = placements;
+
+            Placements nextPlacements = new Placements();
+            grid.getPlacements(nextPiece, nextPlacements);
+            this.nextBoards = Math.max(1, nextPlacements.size());
+        }
+
+        /**
+         * Best of the placements from {@code from} inclusive to {@code to} exclusive, the first one on ties.
+         * The placement is -1 when none can be followed by the next piece. The placements left when the deadline
+         * passes are skipped.
+         */
+        PieceMoveScore scoreRange(int from, int to) {
+            double best = Double.NEGATIVE_INFINITY;
+            int bestPlacement = -1;
+
+            for (int i = from; i < to && !isPastDeadline(); i++) {
+                double score = scorePlacement(placements.get(i));
+                if (score > best) {
+                    best = score;
+                    bestPlacement = placements.get(i);
+                }
+            }
+            return new PieceMoveScore(bestPlacement, best);
+        }
+
+        /**
+         * Best score of the next piece once the piece is played at the placement, or negative infinity when the
+         * placement cannot beat the best score found so far.
+         */
+        private double scorePlacement(int placement) {
+            Grid scratchGrid = getScratchGrid();
+            Piece placed = piece.clone();
+
+            Placements.apply(placed, placement);
+            int record = scratchGrid.play(placed);
+            int linesCleared = Integer.bitCount(record);
+
+            if (evaluator.getDropBound(scratchGrid, nextCells, linesCleared) < bestScore.get()) {
+                scratchGrid.undo(placed, record);
+                searched.incrementAndGet();
+                return Double.NEGATIVE_INFINITY;
+            }
+
+            Placements nextPlacements = PLACEMENTS.get();
+            scratchGrid.getPlacements(nextPiece, nextPlacements);
+            double score = getBestScore(scratchGrid, nextPiece, nextPlacements, 0, nextPlacements.size(),
+                    linesCleared);
+
+            scratchGrid.undo(placed, record);
+            store(score);
+            return score;
+        }
+
+        /**
+         * Same as {@link #scorePlacement}, the placements of the next piece being scored by parallel tasks.
+         */
+        private double splitPlacement(int placement) {
+            if (isPastDeadline()) {
+                return Double.NEGATIVE_INFINITY;
+            }
+
+            Grid scratchGrid = getScratchGrid();
+            Piece placed = piece.clone();
+
+            Placements.apply(placed, placement);
+            int record = scratchGrid.play(placed);
+            int linesCleared = Integer.bitCount(record);
+
+            boolean cut = evaluator.getDropBound(scratchGrid, nextCells, linesCleared) < bestScore.get();
+            Placements nextPlacements = new Placements();
+            scratchGrid.getPlacements(nextPiece, nextPlacements);
+            int count = nextPlacements.size();
+
+            // The tasks replay the placement on their own grid, and may run on this thread while it waits
+            scratchGrid.undo(placed, record);
+            if (cut) {
+                searched.incrementAndGet();
+                return Double.NEGATIVE_INFINITY;
+            }
+
+            List<NextPlyTask> tasks = new ArrayList<>();
+            for (int from = 0; from < count; from += splitThreshold) {
+                int to = Math.min(count, from + splitThreshold);
+                tasks.add(new NextPlyTask(placement, linesCleared, nextPlacements, from, to));
+            }
+
+            double score = Double.NEGATIVE_INFINITY;
+            for (NextPlyTask task : ForkJoinTask.invokeAll(tasks)) {
+                score = Math.max(score, task.join());
+            }
+
+            // A task stopped by the deadline leaves the score incomplete
+            if (Double.isNaN(score)) {
+                return Double.NEGATIVE_INFINITY;
+            }
+            store(score);
+            return score;
+        }
+
+        /**
+         * Records the complete score of a placement.
+         */
+        private void store(double score) {
+            bestScore.accumulate(score);
+            searched.incrementAndGet();
+        }
+
+        // Tasks are never serialized, ForkJoinTask being Serializable only by inheritance
+        @SuppressWarnings("serial")
+        private final class FirstPlyTask extends RecursiveTask<PieceMoveScore> {
+            private final int from;
+            private final int to;
+
+            FirstPlyTask(int from, int to) {
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected PieceMoveScore compute() {
+                if (to - from > 1 && (long) (to - from) * nextBoards > splitThreshold) {
+                    int middle = (from + to) >>> 1;
+                    FirstPlyTask right = new FirstPlyTask(middle, to);
+                    right.fork();
+                    PieceMoveScore left = new FirstPlyTask(from, middle).compute();
+                    PieceMoveScore rightScore = right.join();
+                    return rightScore.score() > left.score() ? rightScore : left;
+                }
+
+                if (to - from == 1 && nextBoards > splitThreshold) {
+                    double score = splitPlacement(placements.get(from));
+                    return new PieceMoveScore(score > Double.NEGATIVE_INFINITY ? placements.get(from) : -1, score);
                 }
+                return scoreRange(from, to);
+            }
+        }
+
+        /**
+         * Best score of the next piece placements from {@code from} inclusive to {@code to} exclusive, once the piece
+         * is played at the placement. The placements are shared read only between the tasks of a placement.
+         */
+        @SuppressWarnings("serial")
+        private final class NextPlyTask extends RecursiveTask<Double> {
+            private final int placement;
+            private final int linesCleared;
+            private final Placements nextPlacements;
+            private final int from;
+            private final int to;
+
+            NextPlyTask(int placement, int linesCleared, Placements nextPlacements, int from, int to) {
+                this.placement = placement;
+                this.linesCleared = linesCleared;
+                this.nextPlacements = nextPlacements;
+                this.from = from;
+                this.to = to;
             }
-        } else if (gridToScore instanceof Grid2D grid2D) {
-            for (int i = 0; i < grid2D.getWidth(); i++) {
-                heights += grid2D.getHeightOfColumn2D(i);
+
+            /**
+             * @return the best score, or NaN when the deadline passed
+             */
+            @Override
+            protected Double compute() {
+                if (isPastDeadline()) {
+                    return Double.NaN;
+                }
+
+                Grid scratchGrid = getScratchGrid();
+                Piece placed = piece.clone();
+                Placements.apply(placed, placement);
+                int record = scratchGrid.play(placed);
+                double score = getBestScore(scratchGrid, nextPiece, nextPlacements, from, to, linesCleared);
+
+                scratchGrid.undo(placed, record);
+                return score;
             }
         }
-        return heights;
     }
 
+    /**
+     * @return the first placement of the best path, or -1 when none was found or the deadline passed
+     */
+    private int beamSearch(Piece piece, Piece nextPiece, int depth) throws InterruptedException, ExecutionException {
+        List<Piece> shapes = piece.getPosition().getSize() > 2 ? PieceGenerator.getShapes3D() : PieceGenerator.getShapes2D();
 
-    public void makeMove(Piece piece, Piece nextPiece) {
-        final var availablePossibilities = grid.getPiecesPossibilities(piece);
+        List<BeamNode> beam = List.of(new BeamNode(null, null, -1, 0, 0));
+        beam = expand(beam, List.of(piece), moveGenerator, false);
+        beamPlacements = expandedCandidates;
 
-        double best = Double.NEGATIVE_INFINITY;
-        Piece bestPiece = null;
+        for (int ply = 1; ply < depth && !beam.isEmpty(); ply++) {
+            if (ply == 1) {
+                beam = expand(beam, List.of(nextPiece), MoveGenerator.HARD_DROP, false);
+            } else if (ply == depth - 1) {
+                beam = rankByExpectation(beam, shapes);
+            } else {
+                beam = expandByExpectation(beam, shapes);
+            }
+        }
 
-        try {
-            List<Callable<PieceMoveScore>> tasks = getCallables(nextPiece, availablePossibilities);
+        if (beam.isEmpty() || isPastDeadline()) {
+            return -1;
+        }
+        return depth >= 4 ? bestExpectedFamily(beam, shapes.size()).firstPlacement() : beam.getFirst().firstPlacement();
+    }
 
-            List<Future<PieceMoveScore>> results = executorService.invokeAll(tasks);
+    /**
+     * Scores every placement of the pieces on every board of the beam, and keeps the best ones.
+     *
+     * @param bestPerPiece only keep the best placement of each piece on each board
+     */
+    private List<BeamNode> expand(List<BeamNode> beam, List<Piece> pieces, MoveGenerator generator,
+                                  boolean bestPerPiece) throws InterruptedException, ExecutionException {
+        List<BeamCandidate> candidates = new ArrayList<>();
+        if (searchPool == null) {
+            for (BeamNode node : beam) {
+                expandNode(node, pieces, generator, bestPerPiece, candidates);
+            }
+        } else {
+            List<Callable<List<BeamCandidate>>> tasks = new ArrayList<>();
+            for (BeamNode node : beam) {
+                tasks.add(() -> expandNode(node, pieces, generator, bestPerPiece, new ArrayList<>()));
+            }
+            for (Future<List<BeamCandidate>> result : searchPool.invokeAll(tasks)) {
+                candidates.addAll(result.get());
+            }
+        }
+        candidates.sort(Comparator.comparingDouble(BeamCandidate::score).reversed());
+        expandedCandidates = candidates.size();
+
+        List<BeamNode> nextBeam = new ArrayList<>(Math.min(beamWidth, candidates.size()));
+        for (BeamCandidate candidate : candidates.subList(0, Math.min(beamWidth, candidates.size()))) {
+            nextBeam.add(toNode(candidate));
+        }
+        return nextBeam;
+    }
 
-            // Find the best move from all results
-            for (Future<PieceMoveScore> result : results) {
-                PieceMoveScore moveScore = result.get();
-                if (moveScore.score > best) {
-                    best = moveScore.score;
-                    bestPiece = moveScore.piece;
+    /**
+     * Expands every board of the beam with the best placement of each shape, and keeps the children of the boards
+     * whose mean over the shapes is the best. The children of a board are kept or dropped together, so that the
+     * expectation of each kept board can be computed again from its children at the last ply.
+     */
+    private List<BeamNode> expandByExpectation(List<BeamNode> beam, List<Piece> shapes)
+            throws InterruptedException, ExecutionException {
+        List<List<BeamCandidate>> families = new ArrayList<>(beam.size());
+        if (searchPool == null) {
+            for (BeamNode node : beam) {
+                families.add(expandNode(node, shapes, MoveGenerator.HARD_DROP, true, new ArrayList<>()));
+            }
+        } else {
+            List<Callable<List<BeamCandidate>>> tasks = new ArrayList<>();
+            for (BeamNode node : beam) {
+                tasks.add(() -> expandNode(node, shapes, MoveGenerator.HARD_DROP, true, new ArrayList<>()));
+            }
+            for (Future<List<BeamCandidate>> result : searchPool.invokeAll(tasks)) {
+                families.add(result.get());
+            }
+        }
+
+        double[] expectations = new double[families.size()];
+        Integer[] order = new Integer[families.size()];
+        for (int i = 0; i < families.size(); i++) {
+            double total = (shapes.size() - families.get(i).size()) * LOSS_SCORE;
+            for (BeamCandidate candidate : families.get(i)) {
+                total += candidate.score();
+            }
+            expectations[i] = total / shapes.size();
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingDouble((Integer i) -> expectations[i]).reversed());
+
+        List<BeamNode> nextBeam = new ArrayList<>(beamWidth + shapes.size());
+        for (int i = 0; i < order.length && nextBeam.size() < beamWidth; i++) {
+            for (BeamCandidate candidate : families.get(order[i])) {
+                nextBeam.add(toNode(candidate));
+            }
+        }
+        return nextBeam;
+    }
+
+    private BeamNode toNode(BeamCandidate candidate) {
+        BeamNode parent = candidate.parent();
+        Piece placed = grid.toPiece(candidate.piece(), candidate.placement());
+        int firstPlacement = parent.firstPlacement() < 0 ? candidate.placement() : parent.firstPlacement();
+        return new BeamNode(parent, placed, firstPlacement, candidate.linesCleared(), candidate.score());
+    }
+
+    /**
+     * Board of the last {@link #expandByExpectation expanded} ply whose children, one per shape, have the best mean
+     * expectation, a shape that could not be placed counting as a loss.
+     */
+    private static BeamNode bestExpectedFamily(List<BeamNode> leaves, int shapeCount) {
+        Map<BeamNode, double[]> families = new IdentityHashMap<>();
+        for (BeamNode leaf : leaves) {
+            double[] family = families.computeIfAbsent(leaf.parent(), _ -> new double[2]);
+            family[0] += leaf.score();
+            family[1]++;
+        }
+
+        BeamNode best = null;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (Map.Entry<BeamNode, double[]> family : families.entrySet()) {
+            double[] sums = family.getValue();
+            double score = (sums[0] + (shapeCount - sums[1]) * LOSS_SCORE) / shapeCount;
+            if (best == null || score > bestScore) {
+                best = family.getKey();
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Adds the placements of the pieces on the board of the node to the candidates.
+     *
+     * @return the candidates
+     */
+    private List<BeamCandidate> expandNode(BeamNode node, List<Piece> pieces, MoveGenerator generator,
+                                           boolean bestPerPiece, List<BeamCandidate> candidates) {
+        if (isPastDeadline()) {
+            return candidates;
+        }
+
+        Grid scratch = getScratchGrid();
+        Placements placements = PLACEMENTS.get();
+        int[] records = new int[beamDepth];
+        int depth = replay(node, scratch, records);
+
+        for (Piece piece : pieces) {
+            BeamCandidate best = null;
+            generator.generate(scratch, piece, placements);
+            BatchEvaluator batch = scorePlacements(scratch, piece, placements, node.linesCleared());
+
+            for (int i = 0; i < placements.size(); i++) {
+                int linesCleared = batch.getLines(i);
+                double score = batch.getScore(i);
+
+                BeamCandidate candidate = new BeamCandidate(node, piece, placements.get(i), linesCleared, score);
+                if (!bestPerPiece) {
+                    candidates.add(candidate);
+                } else if (best == null || score > best.score()) {
+                    best = candidate;
                 }
             }
 
-        } catch (InterruptedException | ExecutionException e) {
-            System.err.println("Error during parallel processing: " + e.getMessage());
+            if (best != null) {
+                candidates.add(best);
+            }
         }
 
-        // Fallback to the current piece if an error occurs
-        grid.freezePiece(bestPiece != null ? bestPiece : piece);
+        rewind(node, scratch, records, depth);
+        return candidates;
+    }
+
+    /**
+     * Scores each board of the beam by the mean, over the shapes, of the best placement of the shape.
+     */
+    private List<BeamNode> rankByExpectation(List<BeamNode> beam, List<Piece> shapes)
+            throws InterruptedException, ExecutionException {
+        List<BeamNode> ranked = new ArrayList<>();
+        if (searchPool == null) {
+            for (BeamNode node : beam) {
+                ranked.add(rankNode(node, shapes));
+            }
+        } else {
+            List<Callable<BeamNode>> tasks = new ArrayList<>();
+            for (BeamNode node : beam) {
+                tasks.add(() -> rankNode(node, shapes));
+            }
+            for (Future<BeamNode> result : searchPool.invokeAll(tasks)) {
+                ranked.add(result.get());
+            }
+        }
+        ranked.sort(Comparator.comparingDouble(BeamNode::score).reversed());
+        return ranked;
+    }
+
+    private BeamNode rankNode(BeamNode node, List<Piece> shapes) {
+        if (isPastDeadline()) {
+            return node;
+        }
+
+        Grid scratch = getScratchGrid();
+        Placements placements = PLACEMENTS.get();
+        int[] records = new int[beamDepth];
+        int depth = replay(node, scratch, records);
+        double expected = 0;
+
+        for (Piece shape : shapes) {
+            scratch.getPlacements(shape, placements);
+            double best = scorePlacements(scratch, shape, placements, node.linesCleared()).getBestScore();
+
+            // A shape that cannot be placed ends the game
+            expected += placements.size() == 0 ? LOSS_SCORE : best;
+        }
+
+        rewind(node, scratch, records, depth);
+        return new BeamNode(node.parent(), node.piece(), node.firstPlacement(), node.linesCleared(),
+                expected / shapes.size());
+    }
+
+    /**
+     * Plays the pieces leading from the root to the node on the scratch grid.
+     *
+     * @return the number of pieces played, their undo records being stored in order
+     */
+    private static int replay(BeamNode node, Grid scratch, int[] records) {
+        if (node.piece() == null) {
+            return 0;
+        }
+
+        int depth = replay(node.parent(), scratch, records);
+        records[depth] = scratch.play(node.piece());
+        return depth + 1;
+    }
+
+    private static void rewind(BeamNode node, Grid scratch, int[] records, int depth) {
+        for (BeamNode current = node; current.piece() != null; current = current.parent()) {
+            scratch.undo(current.piece(), records[--depth]);
+        }
+    }
+
+    private record PieceMoveScore(int placement, double score) {
+    }
+
+    /**
+     * Move searched on a predicted board.
+     *
+     * @param hash hash of the predicted board
+     * @param move placement found on that board
+     */
+    public record Speculation(long hash, CompletableFuture<Integer> move) {
+        public void cancel() {
+            move.cancel(false);
+        }
+    }
+
+    /**
+     * Progress of the search of one move.
+     *
+     * @param depth              deepest search completed, 1 meaning only the one-ply ordering of an anytime move
+     * @param searchedPlacements placements of the piece searched on two plies
+     * @param placements         placements of the piece
+     * @param elapsedNanos       duration of the search
+     * @param timedOut           whether the time budget ran out before the search completed
+     */
+    public record SearchStats(int depth, int searchedPlacements, int placements, long elapsedNanos,
+                              boolean timedOut) {
     }
 
-    public void shutdown() {
-        executorService.shutdownNow();
+    /**
+     * Board reached by playing {@code piece}, already moved to its placement, on the board of {@code parent}.
+     * The root has no parent nor piece.
+     */
+    private record BeamNode(BeamNode parent, Piece piece, int firstPlacement, int linesCleared, double score) {
     }
 
-    private record PieceMoveScore(Piece piece, double score) {
+    private record BeamCandidate(BeamNode parent, Piece piece, int placement, int linesCleared, double score) {
     }
 }
@@ -0,0 +1,75 @@
+package fr.polytech.pie.model;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Threads running the AI, shared by every {@link Ai} instead of one pool per instance.
+ * The CPU bound search tasks run on a {@link ForkJoinPool} sized to the cores. Orchestration work that mostly waits
+ * on searches, like evaluating the individuals of a generation, runs either on the same pool or on virtual threads.
+ */
+public final class AiExecutor implements AutoCloseable {
+    private static AiExecutor shared;
+
+    private final ForkJoinPool pool;
+    private final ExecutorService orchestration;
+
+    /**
+     * @param parallelism    number of threads of the search pool
+     * @param virtualThreads run the orchestration tasks on virtual threads rather than on the search pool
+     */
+    public AiExecutor(int parallelism, boolean virtualThreads) {
+        this.pool = new ForkJoinPool(parallelism);
+        this.orchestration = virtualThreads ? Executors.newVirtualThreadPerTaskExecutor() : pool;
+    }
+
+    /**
+     * Executor used by default, sized to the cores. Its threads are daemons, so it lives as long as the application.
+     */
+    public static synchronized AiExecutor getShared() {
+        if (shared == null) {
+            shared = new AiExecutor(Runtime.getRuntime().availableProcessors(), false);
+        }
+        return shared;
+    }
+
+    /**
+     * Pool running the search tasks.
+     */
+    public ForkJoinPool getSearchPool() {
+        return pool;
+    }
+
+    /**
+     * Executor for tasks that submit searches and wait for them.
+     */
+    public ExecutorService getOrchestrationExecutor() {
+        return orchestration;
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * Stops accepting tasks and waits for the running ones to complete.
+     */
+    @Override
+    public void close() {
+        if (orchestration != pool) {
+            orchestration.close();
+        }
+        pool.shutdown();
+
+        try {
+            if (!pool.awaitTermination(1, TimeUnit.MINUTES)) {
+                System.err.println("AI tasks still running after shutdown");
+            }
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package fr.polytech.pie.model;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Features of a batch of candidate boards, stored as one primitive array per feature and scored by an
+ * {@link Evaluator} in loops without branches nor virtual calls, which the JIT compiles to SIMD code.
+ * A batch is reused from move to move and is not thread safe.
+ */
+public final class BatchEvaluator {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final int[] values = new int[Feature.values().length];
+    private Evaluator evaluator;
+    private List<Feature> features = List.of();
+    private int mask;
+    private int[][] columns = new int[0][INITIAL_CAPACITY];
+    private int[] lines = new int[INITIAL_CAPACITY];
+    private double[] scores = new double[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * Empties the batch and sets the evaluator scoring the next candidates.
+     */
+    public void reset(Evaluator evaluator) {
+        if (this.evaluator != evaluator) {
+            this.evaluator = evaluator;
+            this.features = evaluator.getFeatures();
+            this.mask = Feature.mask(features) | Feature.COMPLETED_LINES.bit();
+            if (columns.length < features.size()) {
+                columns = Arrays.copyOf(columns, features.size());
+                for (int f = 0; f < columns.length; f++) {
+                    if (columns[f] == null) {
+                        columns[f] = new int[scores.length];
+                    }
+                }
+            }
+        }
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Records the features of the grid, on which {@code placed} was just frozen, as a new candidate.
+     *
+     * @param clearedLines lines already cleared on the path leading to the grid
+     */
+    public void add(Grid grid, Piece placed, int clearedLines) {
+        if (size == scores.length) {
+            int capacity = 2 * size;
+            for (int f = 0; f < columns.length; f++) {
+                columns[f] = Arrays.copyOf(columns[f], capacity);
+            }
+            lines = Arrays.copyOf(lines, capacity);
+            scores = Arrays.copyOf(scores, capacity);
+        }
+
+        grid.computeFeatures(mask, placed, values);
+        values[Feature.COMPLETED_LINES.ordinal()] += clearedLines;
+
+        for (int f = 0; f < features.size(); f++) {
+            columns[f][size] = values[features.get(f).ordinal()];
+        }
+        lines[size] = values[Feature.COMPLETED_LINES.ordinal()];
+        size++;
+    }
+
+    /**
+     * Scores every candidate with the evaluator.
+     */
+    public void evaluate() {
+        evaluator.evaluate(columns, size, scores);
+    }
+
+    public double getScore(int index) {
+        return scores[index];
+    }
+
+    /**
+     * Lines completed by the candidate, including the lines already cleared on its path.
+     */
+    public int getLines(int index) {
+        return lines[index];
+    }
+
+    /**
+     * @return the best score of the batch, or negative infinity when it is empty
+     */
+    public double getBestScore() {
+        double best = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < size; i++) {
+            best = Math.max(best, scores[i]);
+        }
+        return best;
+    }
+}
@@ -0,0 +1,232 @@
+package fr.polytech.pie.model;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Plays seeded games with a set of weights and reports the strength and the speed of the AI, to compare parameter
+ * sets and to catch regressions without running the trainer.
+ */
+public class BatchSimulation {
+    private static final int DEFAULT_GAMES = 100;
+    private static final int DEFAULT_PIECES = 500;
+
+    public static void main(String[] args) {
+        int games = DEFAULT_GAMES;
+        int maxPieces = DEFAULT_PIECES;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long seed = 0;
+        boolean is3D = false;
+        String parametersFile = null;
+        String weightsArg = null;
+        List<Feature> features = AIParameters.FEATURES;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--games":
+                    if (i + 1 < args.length) games = CommandLineArgs.parseIntArg(args[++i], games);
+                    break;
+                case "--pieces":
+                    if (i + 1 < args.length) maxPieces = CommandLineArgs.parseIntArg(args[++i], maxPieces);
+                    break;
+                case "--threads":
+                    if (i + 1 < args.length) threads = CommandLineArgs.parseIntArg(args[++i], threads);
+                    break;
+                case "--seed":
+                    if (i + 1 < args.length) seed = CommandLineArgs.parseLongArg(args[++i], seed);
+                    break;
+                case "--parameters":
+                    if (i + 1 < args.length) parametersFile = args[++i];
+                    break;
+                case "--weights":
+                    if (i + 1 < args.length) weightsArg = args[++i];
+                    break;
+                case "--features":
+                    if (i + 1 < args.length) {
+                        try {
+                            features = Feature.parseList(args[++i]);
+                        } catch (IllegalArgumentException e) {
+                            System.out.println(e.getMessage());
+                            printHelp();
+                            return;
+                        }
+                    }
+                    break;
+                case "--3D":
+                    is3D = true;
+                    break;
+                case "--help":
+                    printHelp();
+                    return;
+            }
+        }
+
+        if (games <= 0 || maxPieces <= 0 || threads <= 0) {
+            System.out.println("Expected positive games, pieces and threads but got " + games + ", " + maxPieces
+                    + " and " + threads);
+            printHelp();
+            return;
+        }
+
+        Evaluator evaluator;
+        try {
+            if (parametersFile != null) {
+                evaluator = loadParameters(Path.of(parametersFile));
+            } else if (weightsArg != null) {
+                evaluator = new LinearEvaluator(features, parseWeights(weightsArg));
+            } else {
+                evaluator = (is3D ? AIParameters.DEFAULT_3D : AIParameters.DEFAULT).toEvaluator();
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Invalid parameters: " + e.getMessage());
+            return;
+        }
+
+        System.out.println("Simulating " + games + " " + (is3D ? "3D" : "2D") + " games of at most " + maxPieces
+                + " pieces on " + threads + " threads, seeds " + seed + " to " + (seed + games - 1));
+        System.out.println("  Features: " + evaluator.getFeatures().stream().map(Feature::getName).toList());
+        if (evaluator instanceof LinearEvaluator linear) {
+            System.out.println("  Weights: " + Arrays.toString(linear.getWeights()));
+        }
+
+        try (AiExecutor executor = new AiExecutor(threads, false)) {
+            run(evaluator, games, maxPieces, seed, is3D, executor);
+        }
+    }
+
+    private static void run(Evaluator evaluator, int games, int maxPieces, long seed, boolean is3D,
+                            AiExecutor executor) {
+        Queue<LatencyHistogram> histograms = new ConcurrentLinkedQueue<>();
+        ThreadLocal<Simulator> simulators = ThreadLocal.withInitial(() -> {
+            LatencyHistogram histogram = new LatencyHistogram();
+            histograms.add(histogram);
+            Simulator simulator = new Simulator(is3D);
+            simulator.setMoveLatencies(histogram);
+            return simulator;
+        });
+
+        List<Callable<Simulator.Result>> tasks = new ArrayList<>(games);
+        for (int game = 0; game < games; game++) {
+            long gameSeed = seed + game;
+            tasks.add(() -> simulators.get().play(evaluator, gameSeed, maxPieces));
+        }
+
+        List<Simulator.Result> results = new ArrayList<>(games);
+        long start = System.nanoTime();
+        try {
+            for (Future<Simulator.Result> result : executor.getOrchestrationExecutor().invokeAll(tasks)) {
+                results.add(result.get());
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            System.err.println("Error during parallel processing: " + e.getMessage());
+            return;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        LatencyHistogram latencies = new LatencyHistogram();
+        histograms.forEach(latencies::add);
+        long totalPieces = results.stream().mapToLong(Simulator.Result::pieces).sum();
+        long gameOvers = results.stream().filter(Simulator.Result::gameOver).count();
+
+        System.out.println();
+        System.out.printf("Throughput: %.2f games/s, %.0f pieces/s, %d games lost%n",
+                results.size() / seconds, totalPieces / seconds, gameOvers);
+        printDistribution("Lines", results.stream().mapToInt(Simulator.Result::linesCleared).toArray());
+        printDistribution("Pieces", results.stream().mapToInt(Simulator.Result::pieces).toArray());
+        printLatencies(latencies);
+    }
+
+    private static void printDistribution(String name, int[] values) {
+        Arrays.sort(values);
+        double mean = Arrays.stream(values).average().orElse(0);
+        System.out.printf("%-7s mean %.1f, min %d, p10 %d, median %d, p90 %d, p99 %d, max %d%n", name + ":", mean,
+                values[0], percentile(values, 0.1), percentile(values, 0.5), percentile(values, 0.9),
+                percentile(values, 0.99), values[values.length - 1]);
+    }
+
+    /**
+     * Nearest rank percentile of sorted values.
+     */
+    private static int percentile(int[] sorted, double quantile) {
+        int rank = (int) Math.ceil(quantile * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    private static void printLatencies(LatencyHistogram latencies) {
+        System.out.printf("Move latency: mean %.1f us, p50 < %.1f us, p99 < %.1f us, max %.1f us%n",
+                latencies.getMean() / 1e3, latencies.getPercentile(0.5) / 1e3, latencies.getPercentile(0.99) / 1e3,
+                latencies.getMax() / 1e3);
+
+        for (int bucket = 0; bucket < latencies.getBucketCount(); bucket++) {
+            long count = latencies.getCount(bucket);
+            if (count == 0) {
+                continue;
+            }
+
+            double share = (double) count / latencies.getCount();
+            System.out.printf("  %10.1f - %10.1f us %6.2f%% %s%n", (1L << bucket) / 1e3, (1L << (bucket + 1)) / 1e3,
+                    share * 100, "#".repeat((int) Math.round(share * 50)));
+        }
+    }
+
+    /**
+     * Reads the weights saved by {@code GeneticTrainer --output}, one {@code double <feature>Weight = <value>;}
+     * line per feature.
+     */
+    private static Evaluator loadParameters(Path path) throws IOException {
+        List<Feature> features = new ArrayList<>();
+        List<Double> weights = new ArrayList<>();
+
+        for (String line : Files.readAllLines(path)) {
+            line = line.trim();
+            if (!line.startsWith("double ")) {
+                continue;
+            }
+
+            String[] parts = line.substring("double ".length()).replace(";", "").split("=");
+            String name = parts[0].trim();
+            if (parts.length != 2 || !name.endsWith("Weight")) {
+                throw new IllegalArgumentException("Unexpected line: " + line);
+            }
+            features.add(Feature.fromName(name.substring(0, name.length() - "Weight".length())));
+            weights.add(Double.parseDouble(parts[1].trim()));
+        }
+
+        return new LinearEvaluator(features, weights.stream().mapToDouble(Double::doubleValue).toArray());
+    }
+
+    private static double[] parseWeights(String arg) {
+        String[] values = arg.split(",");
+        double[] weights = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            weights[i] = Double.parseDouble(values[i].trim());
+        }
+        return weights;
+    }
+
+    private static void printHelp() {
+        System.out.println("BatchSimulation - Measure the strength and the speed of a set of AI parameters");
+        System.out.println();
+        System.out.println("Options:");
+        System.out.println("  --games <num>        Number of games (default: 100)");
+        System.out.println("  --pieces <num>       Maximum pieces per game (default: 500)");
+        System.out.println("  --seed <num>         Seed of the first game, the next ones using the following seeds (default: 0)");
+        System.out.println("  --threads <num>      Games played in parallel (default: number of cores)");
+        System.out.println("  --parameters <file>  Weights saved by GeneticTrainer --output");
+        System.out.println("  --weights <list>     Comma separated weights of the features (default: built-in parameters)");
+        System.out.println("  --features <list>    Comma separated features weighed by --weights (default: height,lines,bumpiness,holes)");
+        System.out.println("                       Available: " + String.join(",",
+                Arrays.stream(Feature.values()).map(Feature::getName).toList()));
+        System.out.println("  --3D                 Simulate 3D Tetris");
+        System.out.println("  --help               Display this help message");
+    }
+}
@@ -0,0 +1,377 @@
+package fr.polytech.pie.model;
+
+import fr.polytech.pie.Consts;
+import fr.polytech.pie.model.threeD.Piece3D;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * Micro benchmarks of the AI building blocks, run from the command line.
+ */
+public class Benchmark {
+    private static final int DEFAULT_BOARDS = 200;
+    private static final int DEFAULT_ROUNDS = 5;
+    private static final int DEFAULT_TABLE_SIZE = 1 << 18;
+    private static final int PIECES_PER_GAME = 200;
+    private static final int DEFAULT_BUDGET = 20;
+
+    private record Position(Grid grid, Piece piece) {
+    }
+
+    public static void main(String[] args) {
+        String benchmark = null;
+        boolean is3D = false;
+        int boards = DEFAULT_BOARDS;
+        int rounds = DEFAULT_ROUNDS;
+        int tableSize = DEFAULT_TABLE_SIZE;
+        int budget = DEFAULT_BUDGET;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--moves":
+                    benchmark = "moves";
+                    break;
+                case "--features":
+                    benchmark = "features";
+                    break;
+                case "--search":
+                    benchmark = "search";
+                    break;
+                case "--games":
+                    benchmark = "games";
+                    break;
+                case "--anytime":
+                    benchmark = "anytime";
+                    break;
+                case "--budget":
+                    if (i + 1 < args.length) budget = CommandLineArgs.parseIntArg(args[++i], budget);
+                    break;
+                case "--table-size":
+                    if (i + 1 < args.length) tableSize = CommandLineArgs.parseIntArg(args[++i], tableSize);
+                    break;
+                case "--boards":
+                    if (i + 1 < args.length) boards = CommandLineArgs.parseIntArg(args[++i], boards);
+                    break;
+                case "--rounds":
+                    if (i + 1 < args.length) rounds = CommandLineArgs.parseIntArg(args[++i], rounds);
+                    break;
+                case "--3D":
+                    is3D = true;
+                    break;
+                case "--help":
+                    printHelp();
+                    return;
+            }
+        }
+
+        if (benchmark == null) {
+            printHelp();
+            return;
+        }
+
+        switch (benchmark) {
+            case "moves" -> benchmarkMoveGenerators(createPositions(boards, is3D), rounds);
+            case "search" -> benchmarkSearch(boards, rounds, tableSize, is3D);
+            case "games" -> benchmarkGames(boards, rounds, is3D);
+            case "anytime" -> benchmarkAnytime(boards, rounds, budget, is3D);
+            case "features" -> benchmarkFeatures(createPositions(boards, is3D), rounds);
+        }
+    }
+
+    /**
+     * Boards reached by dropping random pieces, each paired with the piece to play on it.
+     */
+    private static List<Position> createPositions(int count, boolean is3D) {
+        Random random = new Random(42);
+        List<Position> positions = new ArrayList<>(count);
+        Placements placements = new Placements();
+
+        Grid grid = newGrid(is3D);
+        while (positions.size() < count) {
+            Piece piece = newPiece(grid, is3D);
+            grid.getPlacements(piece, placements);
+            if (placements.size() == 0 || grid.checkCollision(piece)) {
+                grid = newGrid(is3D);
+                continue;
+            }
+
+            positions.add(new Position(grid.copy(), piece.clone()));
+            grid.freezePiece(grid.toPiece(piece, placements.get(random.nextInt(placements.size()))));
+            grid.clearFullLines();
+        }
+        return positions;
+    }
+
+    private static Grid newGrid(boolean is3D) {
+        return Grid.create(new TetrisVector(new int[]{Consts.GRID_WIDTH, Consts.GRID_HEIGHT, Consts.GRID_DEPTH}), is3D);
+    }
+
+    private static Piece newPiece(Grid grid, boolean is3D) {
+        return is3D
+                ? PieceGenerator.generate3DPiece(grid.getWidth(), grid.getHeight(), grid.getDepth())
+                : PieceGenerator.generatePiece2D(grid.getWidth(), grid.getHeight());
+    }
+
+    private static void benchmarkMoveGenerators(List<Position> positions, int rounds) {
+        ReachabilitySearch reachabilitySearch = new ReachabilitySearch();
+        Placements placements = new Placements();
+
+        for (int round = 0; round < rounds; round++) {
+            long hardDropPlacements = 0;
+            long start = System.nanoTime();
+            for (Position position : positions) {
+                position.grid().getPlacements(position.piece(), placements);
+                hardDropPlacements += placements.size();
+            }
+            long hardDropTime = System.nanoTime() - start;
+
+            long states = 0;
+            long reachablePlacements = 0;
+            start = System.nanoTime();
+            for (Position position : positions) {
+                states += reachabilitySearch.search(position.grid(), position.piece(), placements);
+                reachablePlacements += placements.size();
+            }
+            long searchTime = System.nanoTime() - start;
+
+            System.out.println("Round " + (round + 1) + ":");
+            System.out.printf("  Hard drop:    %.1f us/move, %.1f placements/move%n",
+                    hardDropTime / 1e3 / positions.size(), (double) hardDropPlacements / positions.size());
+            System.out.printf("  Reachability: %.1f us/move, %.1f placements/move, %.1f states/move, %.0f states/s%n",
+                    searchTime / 1e3 / positions.size(), (double) reachablePlacements / positions.size(),
+                    (double) states / positions.size(), states / (searchTime / 1e9));
+        }
+    }
+
+    /**
+     * Cost of each feature on the boards, the piece of each position being dropped on it first.
+     */
+    private static void benchmarkFeatures(List<Position> positions, int rounds) {
+        Placements placements = new Placements();
+        List<Position> boards = new ArrayList<>(positions.size());
+        for (Position position : positions) {
+            position.grid().getPlacements(position.piece(), placements);
+            Grid grid = position.grid().copy();
+            Piece placed = grid.toPiece(position.piece(), placements.get(0));
+            grid.freezePiece(placed);
+            boards.add(new Position(grid, placed));
+        }
+
+        int[] values = new int[Feature.values().length];
+        int repetitions = Math.max(1, 100_000 / boards.size());
+
+        for (int round = 0; round < rounds; round++) {
+            System.out.println("Round " + (round + 1) + ":");
+            for (Feature feature : Feature.values()) {
+                long time = timeFeatures(boards, feature.bit(), values, repetitions);
+                System.out.printf("  %-18s %.1f ns/board%n", feature.getName(), (double) time / repetitions / boards.size());
+            }
+            long time = timeFeatures(boards, -1, values, repetitions);
+            System.out.printf("  %-18s %.1f ns/board%n", "all", (double) time / repetitions / boards.size());
+        }
+    }
+
+    private static long timeFeatures(List<Position> boards, int mask, int[] values, int repetitions) {
+        long start = System.nanoTime();
+        for (int repetition = 0; repetition < repetitions; repetition++) {
+            for (Position board : boards) {
+                board.grid().computeFeatures(mask, board.piece(), values);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Plays the same pieces with and without a transposition table.
+     */
+    private static void benchmarkSearch(int moves, int rounds, int tableSize, boolean is3D) {
+        AIParameters parameters = is3D ? AIParameters.DEFAULT_3D : AIParameters.DEFAULT;
+        TranspositionTable table = new TranspositionTable(tableSize);
+
+        for (int round = 0; round < rounds; round++) {
+            long plainTime = playMoves(moves, parameters, null, is3D);
+            table.clear();
+            long cachedTime = playMoves(moves, parameters, table, is3D);
+
+            System.out.println("Round " + (round + 1) + ":");
+            System.out.printf("  No table: %.1f us/move%n", plainTime / 1e3 / moves);
+            System.out.printf("  Table:    %.1f us/move, %.1f%% hits over %d lookups (%d slots)%n",
+                    cachedTime / 1e3 / moves, table.getHitRate() * 100, table.getLookups(), table.getCapacity());
+        }
+    }
+
+    /**
+     * @return the time spent in {@link Ai#makeMove}, in nanoseconds
+     */
+    private static long playMoves(int moves, AIParameters parameters, TranspositionTable table, boolean is3D) {
+        Random random = new Random(42);
+        Grid grid = newGrid(is3D);
+        Ai ai = new Ai(grid, parameters);
+        ai.setTranspositionTable(table);
+        long time = 0;
+
+        Piece nextPiece = newPiece(grid, random, is3D);
+        for (int move = 0; move < moves; move++) {
+            Piece piece = nextPiece;
+            nextPiece = newPiece(grid, random, is3D);
+            if (grid.checkCollision(piece)) {
+                grid = newGrid(is3D);
+                ai = new Ai(grid, parameters);
+                ai.setTranspositionTable(table);
+            }
+
+            long start = System.nanoTime();
+            ai.makeMove(piece, nextPiece);
+            time += System.nanoTime() - start;
+            grid.clearFullLines();
+        }
+
+        return time;
+    }
+
+    /**
+     * Share of the search completed by moves given a time budget.
+     */
+    private static void benchmarkAnytime(int moves, int rounds, int budget, boolean is3D) {
+        AIParameters parameters = is3D ? AIParameters.DEFAULT_3D : AIParameters.DEFAULT;
+
+        for (int round = 0; round < rounds; round++) {
+            Random random = new Random(42);
+            Grid grid = newGrid(is3D);
+            Ai ai = new Ai(grid, parameters);
+            long time = 0;
+            long depths = 0;
+            long searched = 0;
+            long placements = 0;
+            int timeouts = 0;
+
+            Piece nextPiece = newPiece(grid, random, is3D);
+            for (int move = 0; move < moves; move++) {
+                Piece piece = nextPiece;
+                nextPiece = newPiece(grid, random, is3D);
+                if (grid.checkCollision(piece)) {
+                    grid = newGrid(is3D);
+                    ai = new Ai(grid, parameters);
+                }
+
+                ai.makeMove(piece, nextPiece, budget);
+                grid.clearFullLines();
+
+                Ai.SearchStats stats = ai.getLastSearchStats();
+                time += stats.elapsedNanos();
+                depths += stats.depth();
+                searched += stats.searchedPlacements();
+                placements += stats.placements();
+                timeouts += stats.timedOut() ? 1 : 0;
+            }
+
+            System.out.println("Round " + (round + 1) + ":");
+            System.out.printf("  %.1f us/move, mean depth %.2f, %.1f%% placements searched, %.1f%% moves timed out%n",
+                    time / 1e3 / moves, (double) depths / moves, 100.0 * searched / Math.max(1, placements),
+                    100.0 * timeouts / moves);
+        }
+    }
+
+    /**
+     * Throughput of whole games, the way the trainer plays them: games one after another with the parallel search
+     * of interactive play, games in parallel each splitting its moves on the same pool, and games in parallel each
+     * searching on its own thread.
+     */
+    private static void benchmarkGames(int games, int rounds, boolean is3D) {
+        Evaluator evaluator = (is3D ? AIParameters.DEFAULT_3D : AIParameters.DEFAULT).toEvaluator();
+        AiExecutor executor = AiExecutor.getShared();
+
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            long pieces = 0;
+            Simulator simulator = new Simulator(is3D, executor);
+            for (int game = 0; game < games; game++) {
+                pieces += simulator.play(evaluator, game, PIECES_PER_GAME).pieces();
+            }
+            long serialTime = System.nanoTime() - start;
+            long serialPieces = pieces;
+
+            start = System.nanoTime();
+            pieces = playGames(games, evaluator, executor, () -> new Simulator(is3D, executor));
+            long nestedTime = System.nanoTime() - start;
+            long nestedPieces = pieces;
+
+            start = System.nanoTime();
+            pieces = playGames(games, evaluator, executor, () -> new Simulator(is3D));
+            long sequentialTime = System.nanoTime() - start;
+
+            System.out.println("Round " + (round + 1) + ":");
+            System.out.printf("  Serial games, parallel search:       %.2f games/s, %.0f pieces/s%n",
+                    games / (serialTime / 1e9), serialPieces / (serialTime / 1e9));
+            System.out.printf("  Parallel games, parallel search:     %.2f games/s, %.0f pieces/s%n",
+                    games / (nestedTime / 1e9), nestedPieces / (nestedTime / 1e9));
+            System.out.printf("  Parallel games, sequential search:   %.2f games/s, %.0f pieces/s%n",
+                    games / (sequentialTime / 1e9), pieces / (sequentialTime / 1e9));
+        }
+    }
+
+    /**
+     * Plays the games on the orchestration threads, each thread using its own simulator.
+     *
+     * @return the number of pieces played in all the games
+     */
+    private static long playGames(int games, Evaluator evaluator, AiExecutor executor,
+                                  Supplier<Simulator> simulatorFactory) {
+        ThreadLocal<Simulator> simulators = ThreadLocal.withInitial(simulatorFactory);
+        List<Callable<Integer>> tasks = new ArrayList<>(games);
+        for (int game = 0; game < games; game++) {
+            long seed = game;
+            tasks.add(() -> simulators.get().play(evaluator, seed, PIECES_PER_GAME).pieces());
+        }
+
+        long pieces = 0;
+        try {
+            for (Future<Integer> result : executor.getOrchestrationExecutor().invokeAll(tasks)) {
+                pieces += result.get();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            System.err.println("Error during parallel processing: " + e.getMessage());
+        }
+        return pieces;
+    }
+
+    /**
+     * Piece of a shape drawn from the given generator, so that runs can be replayed.
+     */
+    private static Piece newPiece(Grid grid, Random random, boolean is3D) {
+        List<Piece> shapes = is3D ? PieceGenerator.getShapes3D() : PieceGenerator.getShapes2D();
+        Piece piece = shapes.get(random.nextInt(shapes.size())).clone();
+        TetrisVector position = piece.getPosition();
+        position.setX((grid.getWidth() - piece.getWidth()) / 2);
+        position.setY(grid.getHeight() - piece.getHeight());
+        if (is3D) {
+            position.setZ((grid.getDepth() - ((Piece3D) piece).getDepth()) / 2);
+        }
+        return piece;
+    }
+
+    private static void printHelp() {
+        System.out.println("Benchmark - Measure the cost of the AI building blocks");
+        System.out.println();
+        System.out.println("Benchmarks:");
+        System.out.println("  --moves              Hard drop generator against the reachability search");
+        System.out.println("  --search             AI moves with and without a transposition table");
+        System.out.println("  --features           Cost of each evaluation feature per board");
+        System.out.println("  --games              Games per second with a parallel or a sequential search");
+        System.out.println("  --anytime            Share of the search completed by moves with a time budget");
+        System.out.println();
+        System.out.println("Options:");
+        System.out.println("  --boards <num>       Number of random boards, moves for --search or games for --games (default: 200)");
+        System.out.println("  --rounds <num>       Number of measured rounds (default: 5)");
+        System.out.println("  --table-size <num>   Transposition table slots (default: 262144)");
+        System.out.println("  --budget <ms>        Time budget of the moves for --anytime (default: 20)");
+        System.out.println("  --3D                 Benchmark 3D Tetris");
+        System.out.println("  --help               Display this help message");
+    }
+}
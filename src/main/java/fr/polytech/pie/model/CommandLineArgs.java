@@ -0,0 +1,27 @@
+package fr.polytech.pie.model;
+
+/**
+ * Parsing of the numeric options shared by the command lines of the trainer, the benchmarks and the simulations.
+ */
+final class CommandLineArgs {
+    private CommandLineArgs() {
+    }
+
+    static int parseIntArg(String arg, int defaultValue) {
+        try {
+            return Integer.parseInt(arg);
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid value, using default: " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    static long parseLongArg(String arg, long defaultValue) {
+        try {
+            return Long.parseLong(arg);
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid value, using default: " + defaultValue);
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package fr.polytech.pie.model;
+
+import java.util.List;
+
+/**
+ * Scores candidate boards from their features. Implementations must be thread safe, as every AI worker shares them.
+ */
+public interface Evaluator {
+    /**
+     * Features read by the evaluator, in the order of the columns given to {@link #evaluate}.
+     */
+    List<Feature> getFeatures();
+
+    /**
+     * Scores the first {@code count} candidates, {@code features[f][i]} being the value of feature {@code f} of
+     * {@link #getFeatures()} for candidate {@code i}. Higher is better.
+     */
+    void evaluate(int[][] features, int count, double[] scores);
+
+    /**
+     * Upper bound of the score of every board reached by hard dropping a piece of {@code cells} cells on the grid,
+     * which has no full line, used to skip the boards that cannot beat the best one. Positive infinity when the
+     * evaluator cannot bound it.
+     *
+     * @param clearedLines lines already cleared on the path leading to the grid
+     */
+    default double getDropBound(Grid grid, int cells, int clearedLines) {
+        return Double.POSITIVE_INFINITY;
+    }
+}
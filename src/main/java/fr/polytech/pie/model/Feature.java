@@ -0,0 +1,108 @@
+package fr.polytech.pie.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Registry of the board features an {@link Evaluator} can weigh, computed by {@link Grid#computeFeatures}.
+ * In 3D, horizontal neighbours are taken along both the X and Z axes.
+ */
+public enum Feature {
+    /**
+     * Sum of the column heights.
+     */
+    AGGREGATE_HEIGHT("height"),
+    /**
+     * Full lines, including the ones already cleared on the searched path.
+     */
+    COMPLETED_LINES("lines"),
+    /**
+     * Sum of the height differences between neighbouring columns.
+     */
+    BUMPINESS("bumpiness"),
+    /**
+     * Runs of empty cells under the top of a column.
+     */
+    HOLES("holes"),
+    /**
+     * Filled/empty changes between horizontal neighbours, the walls counting as filled.
+     */
+    ROW_TRANSITIONS("rowTransitions"),
+    /**
+     * Filled/empty changes between vertical neighbours, the floor counting as filled.
+     */
+    COLUMN_TRANSITIONS("columnTransitions"),
+    /**
+     * Empty cells whose horizontal neighbours are all filled or walls.
+     */
+    WELLS("wells"),
+    /**
+     * Sum over the vertical runs of well cells of 1 + 2 + ... + depth.
+     */
+    CUMULATIVE_WELLS("cumulativeWells"),
+    /**
+     * Row of the middle of the last placed piece.
+     */
+    LANDING_HEIGHT("landingHeight"),
+    /**
+     * Lines completed by the last placed piece times the cells of the piece in these lines.
+     */
+    ERODED_CELLS("erodedCells"),
+    /**
+     * Height of the highest column.
+     */
+    MAX_HEIGHT("maxHeight");
+
+    private final String name;
+
+    Feature(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Short name used on the command line.
+     */
+    public String getName() {
+        return name;
+    }
+
+    public int bit() {
+        return 1 << ordinal();
+    }
+
+    public static int mask(List<Feature> features) {
+        int mask = 0;
+        for (Feature feature : features) {
+            mask |= feature.bit();
+        }
+        return mask;
+    }
+
+    /**
+     * @throws IllegalArgumentException if no feature has this name
+     */
+    public static Feature fromName(String name) {
+        for (Feature feature : values()) {
+            if (feature.name.equals(name)) {
+                return feature;
+            }
+        }
+        throw new IllegalArgumentException("Unknown feature: " + name);
+    }
+
+    /**
+     * Features of a comma separated list of names, each one listed once in the order of its first occurrence.
+     *
+     * @throws IllegalArgumentException if a name is not a feature
+     */
+    public static List<Feature> parseList(String names) {
+        List<Feature> features = new ArrayList<>();
+        for (String name : names.split(",")) {
+            Feature feature = fromName(name.trim());
+            if (!features.contains(feature)) {
+                features.add(feature);
+            }
+        }
+        return features;
+    }
+}
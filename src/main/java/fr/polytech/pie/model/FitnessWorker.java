@@ -0,0 +1,150 @@
+package fr.polytech.pie.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Process evaluating individuals for the {@link FitnessWorkers} of a trainer: reads the games and the evaluations on
+ * its standard input and writes the lines cleared in each game on its standard output, until its input is closed.
+ * The evaluations run in parallel, the worker telling the trainer how many it may send at once.
+ */
+public final class FitnessWorker {
+    private final DataOutputStream output;
+    private final ExecutorService evaluations;
+
+    /**
+     * Games of the next evaluations, with the simulators of the threads playing them.
+     */
+    private record Games(List<Feature> features, byte[][] pieces, int piecesPerGame,
+                         ThreadLocal<Simulator> simulators) {
+    }
+
+    private FitnessWorker(DataOutputStream output, ExecutorService evaluations) {
+        this.output = output;
+        this.evaluations = evaluations;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--threads":
+                    if (i + 1 < args.length) threads = CommandLineArgs.parseIntArg(args[++i], threads);
+                    break;
+                case "--help":
+                    printHelp();
+                    return;
+            }
+        }
+
+        // The standard output carries the results, so anything printed goes to the standard error instead
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+        System.setOut(System.err);
+        DataInputStream input = new DataInputStream(new BufferedInputStream(System.in));
+
+        output.writeInt(FitnessWorkers.PROTOCOL_MAGIC);
+        output.writeInt(threads);
+        output.flush();
+
+        try (AiExecutor executor = new AiExecutor(threads, false)) {
+            new FitnessWorker(output, executor.getOrchestrationExecutor()).serve(input);
+        }
+    }
+
+    private void serve(DataInputStream input) throws IOException {
+        Games games = null;
+        boolean simulatorsIn3D = false;
+        ThreadLocal<Simulator> simulators = null;
+
+        while (true) {
+            byte type;
+            try {
+                type = input.readByte();
+            } catch (EOFException e) {
+                return;
+            }
+
+            switch (type) {
+                case FitnessWorkers.GAMES -> {
+                    boolean is3D = input.readBoolean();
+                    List<Feature> features = new ArrayList<>();
+                    for (int i = input.readInt(); i > 0; i--) {
+                        features.add(Feature.fromName(input.readUTF()));
+                    }
+                    int piecesPerGame = input.readInt();
+
+                    if (simulators == null || simulatorsIn3D != is3D) {
+                        simulators = ThreadLocal.withInitial(() -> GeneticTrainer.createSimulator(is3D));
+                        simulatorsIn3D = is3D;
+                    }
+                    Simulator simulator = simulators.get();
+                    byte[][] pieces = new byte[input.readInt()][];
+                    for (int game = 0; game < pieces.length; game++) {
+                        pieces[game] = simulator.recordPieces(input.readLong(), piecesPerGame);
+                    }
+                    games = new Games(features, pieces, piecesPerGame, simulators);
+                }
+                case FitnessWorkers.EVALUATION -> {
+                    int id = input.readInt();
+                    int fromGame = input.readInt();
+                    int toGame = input.readInt();
+                    double[] parameters = new double[input.readInt()];
+                    for (int i = 0; i < parameters.length; i++) {
+                        parameters[i] = input.readDouble();
+                    }
+                    if (games == null) {
+                        throw new IOException("Expected games before the evaluation " + id);
+                    }
+
+                    Games evaluationGames = games;
+                    evaluations.execute(() -> evaluate(evaluationGames, id, parameters, fromGame, toGame));
+                }
+                default -> throw new IOException("Unexpected message: " + type);
+            }
+        }
+    }
+
+    private void evaluate(Games games, int id, double[] parameters, int fromGame, int toGame) {
+        try {
+            Simulator simulator = games.simulators().get();
+            Evaluator evaluator = new LinearEvaluator(games.features(), parameters);
+            int[] lines = new int[toGame - fromGame];
+            for (int game = fromGame; game < toGame; game++) {
+                lines[game - fromGame] = simulator.play(evaluator, games.pieces()[game], games.piecesPerGame()).linesCleared();
+            }
+
+            synchronized (output) {
+                output.writeInt(id);
+                output.writeInt(lines.length);
+                for (int line : lines) {
+                    output.writeInt(line);
+                }
+                output.flush();
+            }
+        } catch (Exception e) {
+            // The trainer queues the evaluations of a dead worker again, which is safer than leaving one unanswered
+            System.err.println("Error during evaluation " + id + ": " + e);
+            System.exit(1);
+        }
+    }
+
+    private static void printHelp() {
+        System.out.println("FitnessWorker - Evaluate individuals for a GeneticTrainer run with --workers");
+        System.out.println();
+        System.out.println("Reads the evaluations on the standard input and writes their results on the standard output.");
+        System.out.println();
+        System.out.println("Options:");
+        System.out.println("  --threads <num>      Evaluations run in parallel (default: number of cores)");
+        System.out.println("  --help               Display this help message");
+    }
+}
@@ -0,0 +1,279 @@
+package fr.polytech.pie.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Worker processes evaluating individuals for {@link GeneticTrainer}, each one running a {@link FitnessWorker} at the
+ * other end of its standard input and output, on this machine or on another one through a command such as ssh.
+ * <p>
+ * The evaluations wait in a single queue from which each worker takes as many as it has threads, the fastest workers
+ * taking the most. The evaluations of a worker that dies are queued again and the worker restarted after a delay
+ * doubling with each failure. A worker is only given up after {@value #MAX_RESTARTS} restarts in a row without
+ * completing any evaluation, so that workers preempted now and then keep their place, but an evaluation is only sent
+ * again {@value #MAX_RESTARTS} times, so that an individual crashing every worker fails the generation instead of
+ * restarting the workers forever.
+ */
+public final class FitnessWorkers implements AutoCloseable {
+    static final int PROTOCOL_MAGIC = 0x50494557;
+    static final byte GAMES = 1;
+    static final byte EVALUATION = 2;
+
+    private static final int MAX_RESTARTS = 3;
+    private static final long RESTART_DELAY_MILLIS = 1000;
+    private static final long POLL_MILLIS = 100;
+
+    private final boolean is3D;
+    private final List<Feature> features;
+    private final BlockingQueue<Evaluation> queue = new LinkedBlockingQueue<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final AtomicInteger aliveWorkers;
+    private final List<Thread> threads = new ArrayList<>();
+    private Games games;
+    private volatile boolean closed;
+
+    /**
+     * Games the individuals are evaluated on, the workers recording their pieces from the seeds.
+     */
+    private record Games(int version, long[] seeds, int piecesPerGame) {
+    }
+
+    /**
+     * @param attempts workers that died while running the evaluation
+     */
+    private record Evaluation(int id, Games games, double[] parameters, int fromGame, int toGame,
+                              int attempts, CompletableFuture<int[]> result) {
+    }
+
+    /**
+     * @param commands command line of each worker process
+     */
+    public FitnessWorkers(List<List<String>> commands, boolean is3D, List<Feature> features) {
+        if (commands.isEmpty()) {
+            throw new IllegalArgumentException("Expected at least one worker but got none");
+        }
+        this.is3D = is3D;
+        this.features = List.copyOf(features);
+        this.aliveWorkers = new AtomicInteger(commands.size());
+
+        for (int i = 0; i < commands.size(); i++) {
+            List<String> command = List.copyOf(commands.get(i));
+            threads.add(Thread.ofPlatform().daemon().name("fitness-worker-" + i).start(() -> runWorker(command)));
+        }
+    }
+
+    /**
+     * Command line running a worker on this machine, with the Java runtime and the class path of this process.
+     */
+    public static List<String> localCommand() {
+        String java = ProcessHandle.current().info().command().orElse("java");
+        return List.of(java, "-cp", System.getProperty("java.class.path"), FitnessWorker.class.getName());
+    }
+
+    /**
+     * Sets the games of the next evaluations, the pieces of each game being drawn from its seed as
+     * {@link Simulator#recordPieces} does.
+     */
+    public synchronized void setGames(long[] seeds, int piecesPerGame) {
+        games = new Games(games == null ? 0 : games.version() + 1, seeds.clone(), piecesPerGame);
+    }
+
+    /**
+     * Queues the evaluation of an individual on the games {@code fromGame} to {@code toGame} excluded.
+     *
+     * @return the lines cleared in each game
+     */
+    public CompletableFuture<int[]> submit(double[] parameters, int fromGame, int toGame) {
+        Games games;
+        synchronized (this) {
+            games = this.games;
+        }
+        if (games == null) {
+            throw new IllegalStateException("No games to evaluate the individual on");
+        }
+
+        CompletableFuture<int[]> result = new CompletableFuture<>();
+        queue.add(new Evaluation(nextId.getAndIncrement(), games, parameters.clone(), fromGame, toGame, 0, result));
+        if (aliveWorkers.get() == 0) {
+            failQueuedEvaluations();
+        }
+        return result;
+    }
+
+    private void runWorker(List<String> command) {
+        Map<Integer, Evaluation> running = new HashMap<>();
+        AtomicInteger completed = new AtomicInteger();
+        int failures = 0;
+
+        while (failures <= MAX_RESTARTS && !closed) {
+            Process process = null;
+            try {
+                if (failures > 0) {
+                    Thread.sleep(RESTART_DELAY_MILLIS << (failures - 1));
+                }
+                completed.set(0);
+                process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+                serve(process, running, completed);
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("Fitness worker " + String.join(" ", command) + " failed: " + e);
+                }
+                requeueAfterFailure(running.values());
+                running.clear();
+                failures = completed.get() > 0 ? 1 : failures + 1;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                if (process != null) {
+                    stop(process);
+                }
+            }
+        }
+
+        queue.addAll(running.values());
+        if (aliveWorkers.decrementAndGet() == 0) {
+            failQueuedEvaluations();
+        }
+    }
+
+    /**
+     * Sends evaluations to the worker until the pool is closed, keeping as many running as the worker has threads.
+     *
+     * @param completed incremented with each evaluation the worker completes
+     */
+    private void serve(Process process, Map<Integer, Evaluation> running, AtomicInteger completed)
+            throws IOException, InterruptedException {
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+        DataInputStream input = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+
+        int magic = input.readInt();
+        if (magic != PROTOCOL_MAGIC) {
+            throw new IOException("Expected a fitness worker but got " + Integer.toHexString(magic));
+        }
+        int capacity = Math.max(1, input.readInt());
+        int sentGames = -1;
+
+        while (!closed) {
+            if (running.isEmpty()) {
+                Evaluation evaluation = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (evaluation == null) {
+                    continue;
+                }
+                sentGames = send(output, evaluation, sentGames);
+                running.put(evaluation.id(), evaluation);
+            }
+
+            Evaluation evaluation;
+            while (running.size() < capacity && (evaluation = queue.poll()) != null) {
+                sentGames = send(output, evaluation, sentGames);
+                running.put(evaluation.id(), evaluation);
+            }
+            output.flush();
+
+            int id = input.readInt();
+            int[] lines = new int[input.readInt()];
+            for (int i = 0; i < lines.length; i++) {
+                lines[i] = input.readInt();
+            }
+            Evaluation done = running.remove(id);
+            if (done != null) {
+                done.result().complete(lines);
+                completed.incrementAndGet();
+            }
+        }
+        output.close();
+    }
+
+    /**
+     * @return version of the games known to the worker
+     */
+    private int send(DataOutputStream output, Evaluation evaluation, int sentGames) throws IOException {
+        Games games = evaluation.games();
+        if (games.version() != sentGames) {
+            output.writeByte(GAMES);
+            output.writeBoolean(is3D);
+            output.writeInt(features.size());
+            for (Feature feature : features) {
+                output.writeUTF(feature.getName());
+            }
+            output.writeInt(games.piecesPerGame());
+            output.writeInt(games.seeds().length);
+            for (long seed : games.seeds()) {
+                output.writeLong(seed);
+            }
+        }
+
+        output.writeByte(EVALUATION);
+        output.writeInt(evaluation.id());
+        output.writeInt(evaluation.fromGame());
+        output.writeInt(evaluation.toGame());
+        output.writeInt(evaluation.parameters().length);
+        for (double parameter : evaluation.parameters()) {
+            output.writeDouble(parameter);
+        }
+        return games.version();
+    }
+
+    private void requeueAfterFailure(Iterable<Evaluation> evaluations) {
+        for (Evaluation evaluation : evaluations) {
+            if (evaluation.attempts() >= MAX_RESTARTS) {
+                evaluation.result().completeExceptionally(new IOException(
+                        "Evaluation " + evaluation.id() + " was running on " + (MAX_RESTARTS + 1) + " workers that died"));
+            } else {
+                queue.add(new Evaluation(evaluation.id(), evaluation.games(), evaluation.parameters(),
+                        evaluation.fromGame(), evaluation.toGame(), evaluation.attempts() + 1, evaluation.result()));
+            }
+        }
+    }
+
+    private void failQueuedEvaluations() {
+        Evaluation evaluation;
+        while ((evaluation = queue.poll()) != null) {
+            evaluation.result().completeExceptionally(new IOException("Every fitness worker died"));
+        }
+    }
+
+    private static void stop(Process process) {
+        try {
+            process.getOutputStream().close();
+            if (!process.waitFor(1, TimeUnit.SECONDS)) {
+                process.destroy();
+            }
+        } catch (IOException e) {
+            process.destroy();
+        } catch (InterruptedException e) {
+            process.destroy();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stops the workers once their running evaluations are over.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Thread thread : threads) {
+            try {
+                thread.join(Duration.ofSeconds(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
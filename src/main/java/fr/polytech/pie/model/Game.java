@@ -4,6 +4,7 @@ import fr.polytech.pie.Consts;
 import fr.polytech.pie.model.threeD.Piece3D;
 import fr.polytech.pie.model.twoD.Piece2D;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -12,6 +13,12 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class Game {
+    /**
+     * Time the AI may think on a move before playing the best one found, so that 3D moves do not freeze the game.
+     */
+    private static final long AI_TIME_BUDGET_MILLIS = 150;
+    private static final int MAX_AI_SEARCH_RETRIES = 2;
+
     private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
     private ScheduledFuture<?> future;
 
@@ -19,8 +26,26 @@ public class Game {
 
     private Grid grid;
     private Ai ai;
+    /**
+     * Move of the AI for the current piece, searched in the background as soon as the piece spawns.
+     */
+    private CompletableFuture<Integer> aiMove;
+    /**
+     * State of the current piece when the search of {@link #aiMove} started, packed as a placement.
+     */
+    private int aiMoveOrigin;
+    private int aiSearchRetries;
+    private boolean aiRequested;
+    /**
+     * Move of the AI for the next piece, searched on the board expected once the AI plays the current one.
+     */
+    private Ai.Speculation speculation;
     private Piece piece;
     private Piece nextPiece;
+    /**
+     * Piece after the next one, only known to the AI so that it can search the next move ahead.
+     */
+    private Piece followingPiece;
     private long score;
     private boolean is3D;
     private boolean gameOver;
@@ -57,7 +82,7 @@ public class Game {
         return gameOver;
     }
 
-    public void setRenderingMode(boolean is3D) {
+    public synchronized void setRenderingMode(boolean is3D) {
         if (this.is3D != is3D) {
             this.is3D = is3D;
             resetGame();
@@ -68,7 +93,12 @@ public class Game {
         score += linesCleared * 100L;
     }
 
-    public void translateCurrentPiece(TetrisVector translation) {
+    public synchronized void translateCurrentPiece(TetrisVector translation) {
+        cancelSpeculation();
+        moveCurrentPiece(translation);
+    }
+
+    private synchronized void moveCurrentPiece(TetrisVector translation) {
         if (gameOver) return;
         var originalPos = new TetrisVector(piece.getPosition());
 
@@ -116,19 +146,20 @@ public class Game {
         }
     }
 
-    public void resetGame() {
+    public synchronized void resetGame() {
         if (future != null) {
             future.cancel(false);
         }
-
-        if (ai != null) {
-            ai.shutdown();
+        if (aiMove != null) {
+            aiMove.cancel(false);
         }
+        cancelSpeculation();
 
         grid = Grid.create(new TetrisVector(new int[]{Consts.GRID_WIDTH, Consts.GRID_HEIGHT, Consts.GRID_DEPTH}), is3D);
         ai = new Ai(grid, is3D ? AIParameters.DEFAULT_3D : AIParameters.DEFAULT);
         piece = null;
         nextPiece = null;
+        followingPiece = null;
         generateNewPiece();
         score = 0;
         gameOver = false;
@@ -136,9 +167,9 @@ public class Game {
         future = executor.scheduleAtFixedRate(
                 () -> {
                     if (is3D) {
-                        translateCurrentPiece(new TetrisVector(new int[]{0, -1, 0}));
+                        moveCurrentPiece(new TetrisVector(new int[]{0, -1, 0}));
                     } else {
-                        translateCurrentPiece(new TetrisVector(new int[]{0, -1}));
+                        moveCurrentPiece(new TetrisVector(new int[]{0, -1}));
                     }
                     updateModelLambda.run();
                 }, 0, 200 / difficulty, TimeUnit.MILLISECONDS
@@ -149,45 +180,183 @@ public class Game {
         if (gameOver) return;
 
         if (nextPiece == null) {
-            if (is3D) {
-                nextPiece = PieceGenerator.generate3DPiece(grid.getWidth(), grid.getHeight(), grid.getDepth());
-            } else {
-                nextPiece = PieceGenerator.generatePiece2D(grid.getWidth(), grid.getHeight());
-            }
+            nextPiece = createPiece();
+            followingPiece = createPiece();
         }
 
         piece = nextPiece;
+        nextPiece = followingPiece;
+        followingPiece = createPiece();
+
+        if (!grid.checkCollision(piece)) {
+            searchAiMove();
+        }
+    }
+
+    private Piece createPiece() {
         if (is3D) {
-            nextPiece = PieceGenerator.generate3DPiece(grid.getWidth(), grid.getHeight(), grid.getDepth());
+            return PieceGenerator.generate3DPiece(grid.getWidth(), grid.getHeight(), grid.getDepth());
         } else {
-            nextPiece = PieceGenerator.generatePiece2D(grid.getWidth(), grid.getHeight());
+            return PieceGenerator.generatePiece2D(grid.getWidth(), grid.getHeight());
         }
     }
 
-    public void rotateCurrentPiece() {
+    /**
+     * Starts the search of the move of the new piece, unless the speculation of the previous move predicted the
+     * board.
+     */
+    private void searchAiMove() {
+        aiRequested = false;
+        aiSearchRetries = 0;
+
+        CompletableFuture<Integer> search;
+        if (speculation != null && speculation.hash() == grid.getHash()) {
+            search = speculation.move();
+            speculation = null;
+        } else {
+            cancelSpeculation();
+            search = ai.findMoveAsync(piece, nextPiece, AI_TIME_BUDGET_MILLIS);
+        }
+        watchAiMove(search);
+    }
+
+    /**
+     * Searches the move of the current piece again from its current state, keeping the request to play it.
+     */
+    private void searchAiMoveAgain() {
+        cancelSpeculation();
+        watchAiMove(ai.findMoveAsync(piece, nextPiece, AI_TIME_BUDGET_MILLIS));
+    }
+
+    private void watchAiMove(CompletableFuture<Integer> search) {
+        if (aiMove != null) {
+            aiMove.cancel(false);
+        }
+        aiMove = search;
+        aiMoveOrigin = getState(piece);
+
+        search.whenComplete((_, error) -> {
+            if (error != null && !search.isCancelled()) {
+                Logger.getLogger(Game.class.getName()).log(Level.WARNING, "AI search failed", error);
+            }
+            if (onAiMoveDone(search)) {
+                updateModelLambda.run();
+            }
+        });
+    }
+
+    /**
+     * Speculates on the next move and plays the move found if it was requested. A failed search is started again, a
+     * few times per piece.
+     *
+     * @return whether the move was played
+     */
+    private synchronized boolean onAiMoveDone(CompletableFuture<Integer> search) {
+        if (search != aiMove || gameOver || search.isCancelled()) {
+            return false;
+        }
+
+        if (search.isCompletedExceptionally()) {
+            if (aiSearchRetries < MAX_AI_SEARCH_RETRIES) {
+                aiSearchRetries++;
+                searchAiMoveAgain();
+                return false;
+            }
+        } else {
+            int placement = search.join();
+            if (placement >= 0) {
+                cancelSpeculation();
+                speculation = ai.speculate(piece, placement, nextPiece, followingPiece, AI_TIME_BUDGET_MILLIS);
+            }
+        }
+        return applyRequestedAiMove();
+    }
+
+    /**
+     * Drops the speculation on the next move, which assumed the AI would play the current piece.
+     */
+    private void cancelSpeculation() {
+        if (speculation != null) {
+            speculation.cancel();
+            speculation = null;
+        }
+    }
+
+    public synchronized void rotateCurrentPiece() {
         if (gameOver) return;
+        cancelSpeculation();
         assert piece instanceof Piece2D : "Current piece is not a 2D piece";
         ((Piece2D) piece).rotate2d(piece -> grid.checkCollision(piece));
     }
 
-    public void rotateCurrentPiece3D(RotationAxis axis, boolean reverse) {
+    public synchronized void rotateCurrentPiece3D(RotationAxis axis, boolean reverse) {
         if (gameOver) return;
+        cancelSpeculation();
         assert piece instanceof Piece3D : "Current piece is not a 3D piece";
         ((Piece3D) piece).rotate3D(axis, (piece) -> grid.checkCollision(piece), reverse);
     }
 
-    public void runAi() {
+    /**
+     * Asks the AI to play the current piece. The move is played at once when its search is over, and otherwise as
+     * soon as it completes, without blocking the caller.
+     */
+    public synchronized void runAi() {
         if (gameOver) return;
-        ai.makeMove(piece, nextPiece);
-        updateScore(grid.clearFullLines());
-        generateNewPiece();
+        aiRequested = true;
+        if (aiMove != null && aiMove.isCompletedExceptionally() && !aiMove.isCancelled()) {
+            // Every search of the piece failed so far, so the request starts a new one
+            aiSearchRetries = 0;
+            searchAiMoveAgain();
+            return;
+        }
+        applyRequestedAiMove();
     }
 
-    public void cleanup() {
-        ai.shutdown();
+    /**
+     * Plays the requested move once its search is over, searching it again when the piece fell past the way to it.
+     * Searching on this thread instead would deadlock, the search threads waiting for the game to report their moves.
+     *
+     * @return whether the requested move was played
+     */
+    private synchronized boolean applyRequestedAiMove() {
+        if (gameOver || !aiRequested || aiMove == null || !aiMove.isDone() || aiMove.isCancelled()) {
+            return false;
+        }
+
+        if (aiMove.isCompletedExceptionally()) {
+            Logger.getLogger(Game.class.getName()).log(Level.WARNING,
+                    "No AI move for the current piece after " + (MAX_AI_SEARCH_RETRIES + 1) + " failed searches");
+            aiRequested = false;
+            return false;
+        }
+
+        int placement = aiMove.join();
+        if (placement >= 0 && getState(piece) != aiMoveOrigin && !ai.canPlay(piece, placement)) {
+            searchAiMoveAgain();
+            return false;
+        }
+        aiRequested = false;
+        if (placement >= 0) {
+            piece = grid.toPiece(piece, placement);
+        }
+        freeze();
+        return true;
+    }
+
+    private static int getState(Piece piece) {
+        TetrisVector position = piece.getPosition();
+        return Placements.pack(piece.getOrientation(), position.getX(), position.getY(),
+                position.getSize() > 2 ? position.getZ() : 0);
+    }
+
+    public synchronized void cleanup() {
         if (future != null) {
             future.cancel(false);
         }
+        if (aiMove != null) {
+            aiMove.cancel(false);
+        }
+        cancelSpeculation();
         executor.shutdown();
     }
 }
@@ -1,15 +1,25 @@
 package fr.polytech.pie.model;
 
-import fr.polytech.pie.Consts;
-import fr.polytech.pie.model.threeD.Grid3D;
-import fr.polytech.pie.model.twoD.Grid2D;
-
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.FileWriter;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class GeneticTrainer {
     private static final int POPULATION_SIZE = 1000;
@@ -19,32 +29,98 @@ public class GeneticTrainer {
     private static final double FINAL_MUTATION_PROBABILITY = 0.01;
     private static final double INITIAL_MUTATION_RANGE = 0.2;
     private static final double FINAL_MUTATION_RANGE = 0.05;
-    private static final int GAMES_PER_EVALUATION = 100;
+    private static final int GAMES_PER_EVALUATION = 30;
     private static final int MAX_PIECES_PER_GAME = 500;
     private static final int MIN_PIECES_PER_GAME = 100;
     private static final int STAGNATION_THRESHOLD = 10;
+    private static final int RACING_ROUND_GAMES = 5;
+    /**
+     * Standard deviations of the mean lines per game separating the bounds of an individual from its mean when racing.
+     */
+    private static final double RACING_CONFIDENCE = 2.5;
+    /**
+     * Tournaments out of which one may pick its winner outside of the individuals racing until the last game.
+     */
+    private static final int RACING_TOURNAMENT_MISSES = 10000;
+    private static final int CHECKPOINT_MAGIC = 0x47544350;
+    private static final int CHECKPOINT_VERSION = 2;
 
     private double currentMutationProbability;
     private double currentMutationRange;
     private List<Individual> population;
-    private final Random random = new Random();
+    /**
+     * Random of the current generation, seeded from the seed of the trainer and the generation so that a run resumed
+     * from a checkpoint draws the same numbers as the run that wrote it.
+     */
+    private Random random;
+    private final long seed;
+    private int generation = 0;
     private int previousBestFitness = 0;
     private int generationsWithoutImprovement = 0;
     private final int populationSize;
     private final int gamesPerEvaluation;
     private final boolean is3D;
+    private final List<Feature> features;
+    private final AiExecutor executor;
+    private final ThreadLocal<Simulator> simulators;
+    private boolean racing;
+    /**
+     * Individuals that played every game of the generation, ranked first in the population.
+     */
+    private int parentCount;
+    private Path checkpointFile;
+    private FitnessWorkers workers;
 
     private static class Individual implements Comparable<Individual> {
         double[] parameters;
         int fitness;
+        int gamesPlayed;
+        long linesCleared;
+        long squaredLinesCleared;
+        /**
+         * Whether the individual stopped racing before the last game of the generation.
+         */
+        boolean dropped;
 
         public Individual(double[] parameters) {
             this.parameters = normalize(parameters);
             this.fitness = 0;
         }
 
+        private void resetGames() {
+            gamesPlayed = 0;
+            linesCleared = 0;
+            squaredLinesCleared = 0;
+            dropped = false;
+        }
+
+        private void addGame(int lines) {
+            gamesPlayed++;
+            linesCleared += lines;
+            squaredLinesCleared += (long) lines * lines;
+        }
+
+        private double getMeanLines() {
+            return (double) linesCleared / gamesPlayed;
+        }
+
+        /**
+         * Half width of the confidence interval of the mean lines per game.
+         */
+        private double getMeanLinesMargin() {
+            if (gamesPlayed < 2) {
+                return Double.POSITIVE_INFINITY;
+            }
+            double mean = getMeanLines();
+            double variance = Math.max(0, ((double) squaredLinesCleared / gamesPlayed - mean * mean) * gamesPlayed / (gamesPlayed - 1));
+            return RACING_CONFIDENCE * Math.sqrt(variance / gamesPlayed);
+        }
+
         @Override
         public int compareTo(Individual other) {
+            if (this.dropped != other.dropped) {
+                return this.dropped ? -1 : 1;
+            }
             return Integer.compare(this.fitness, other.fitness);
         }
 
@@ -56,7 +132,9 @@ public class GeneticTrainer {
             magnitude = Math.sqrt(magnitude);
 
             if (magnitude < 1e-10) {
-                return new double[]{1, 0, 0, 0};
+                double[] unit = new double[vector.length];
+                unit[0] = 1;
+                return unit;
             }
 
             double[] normalized = new double[vector.length];
@@ -68,18 +146,74 @@ public class GeneticTrainer {
     }
 
     public GeneticTrainer(int populationSize, int gamesPerEvaluation, boolean is3D) {
+        this(populationSize, gamesPerEvaluation, is3D, AIParameters.FEATURES, AiExecutor.getShared());
+    }
+
+    /**
+     * @param features features whose weights are optimized, each individual holding one weight per feature
+     * @param executor threads running the evaluations, left open when training ends
+     */
+    public GeneticTrainer(int populationSize, int gamesPerEvaluation, boolean is3D, List<Feature> features,
+                          AiExecutor executor) {
+        this(populationSize, gamesPerEvaluation, is3D, features, executor, ThreadLocalRandom.current().nextLong());
+    }
+
+    /**
+     * @param seed seed of the initial population, of the games and of the evolution, the same seed giving the same
+     *             training
+     */
+    public GeneticTrainer(int populationSize, int gamesPerEvaluation, boolean is3D, List<Feature> features,
+                          AiExecutor executor, long seed) {
         this.populationSize = populationSize;
         this.gamesPerEvaluation = gamesPerEvaluation;
         this.is3D = is3D;
+        this.features = List.copyOf(features);
+        this.executor = executor;
+        this.simulators = ThreadLocal.withInitial(() -> createSimulator(is3D));
+        this.seed = seed;
+        this.random = new Random(seed);
         initializePopulation();
         currentMutationProbability = INITIAL_MUTATION_PROBABILITY;
         currentMutationRange = INITIAL_MUTATION_RANGE;
     }
 
+    /**
+     * Evaluates the population in rounds of {@value #RACING_ROUND_GAMES} games, dropping after each round the
+     * individuals that cannot reach the ones kept at the next generation or the ones tournaments pick their winners
+     * from. A dropped individual ranks below every individual that played all the games and is never picked as a
+     * parent, its fitness extrapolated from the games it played only ordering it among the dropped ones.
+     */
+    public void setRacing(boolean racing) {
+        this.racing = racing;
+    }
+
+    /**
+     * Simulator playing the games of the evaluations, in the trainer or in a {@link FitnessWorker}.
+     */
+    static Simulator createSimulator(boolean is3D) {
+        Simulator simulator = new Simulator(is3D);
+        simulator.setStallLimit(25, 0.7);
+        return simulator;
+    }
+
+    /**
+     * Worker processes playing the games of the evaluations, or {@code null} to play them in this process.
+     */
+    public void setWorkers(FitnessWorkers workers) {
+        this.workers = workers;
+    }
+
+    /**
+     * File in which the state of the training is saved after each generation, or {@code null} not to save it.
+     */
+    public void setCheckpointFile(Path checkpointFile) {
+        this.checkpointFile = checkpointFile;
+    }
+
     private void initializePopulation() {
         population = new ArrayList<>(populationSize);
         for (int i = 0; i < populationSize; i++) {
-            double[] params = new double[4];
+            double[] params = new double[features.size()];
             for (int j = 0; j < params.length; j++) {
                 params[j] = random.nextDouble() * 2 - 1;
             }
@@ -87,11 +221,26 @@ public class GeneticTrainer {
         }
     }
 
+    /**
+     * Trains until {@code generations} generations were run, counting the ones run before the checkpoint the trainer
+     * was resumed from.
+     *
+     * @throws IllegalStateException if an individual could not be evaluated, the generation being abandoned before
+     *                               its checkpoint is written
+     */
     public double[] train(int generations) {
-        for (int gen = 0; gen < generations; gen++) {
-            System.out.println("Starting generation " + (gen + 1));
+        if (racing && getRacingPoolSize() >= populationSize) {
+            System.out.println("Racing disabled: every one of the " + populationSize + " individuals can be selected");
+        } else if (racing && gamesPerEvaluation <= RACING_ROUND_GAMES) {
+            System.out.println("Racing disabled: " + gamesPerEvaluation + " games per evaluation fit in a single round of "
+                    + RACING_ROUND_GAMES);
+        }
 
-            updateAdaptiveParameters(gen, generations);
+        for (; generation < generations; generation++) {
+            System.out.println("Starting generation " + (generation + 1));
+
+            random = new Random(seed + generation * 0x9E3779B97F4A7C15L);
+            updateAdaptiveParameters(generation, generations);
 
             evaluatePopulation();
             population.sort(Collections.reverseOrder());
@@ -105,17 +254,141 @@ public class GeneticTrainer {
                 resetStagnantPopulation();
                 generationsWithoutImprovement = 0;
             }
+
+            if (checkpointFile != null) {
+                saveCheckpoint(generation + 1);
+            }
         }
 
         population.sort(Collections.reverseOrder());
         return population.getFirst().parameters;
     }
 
+    /**
+     * Writes the state of the training once {@code completedGenerations} generations were run. The checkpoint is
+     * written next to the file, forced to the disk and then renamed over it, so that a crash leaves either the old or
+     * the new checkpoint.
+     */
+    private void saveCheckpoint(int completedGenerations) {
+        Path temporaryFile = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            output.writeInt(CHECKPOINT_MAGIC);
+            output.writeInt(CHECKPOINT_VERSION);
+            output.writeBoolean(is3D);
+            output.writeBoolean(racing);
+            output.writeInt(features.size());
+            for (Feature feature : features) {
+                output.writeUTF(feature.getName());
+            }
+            output.writeInt(populationSize);
+            output.writeInt(gamesPerEvaluation);
+            output.writeLong(seed);
+            output.writeInt(completedGenerations);
+            output.writeDouble(currentMutationProbability);
+            output.writeDouble(currentMutationRange);
+            output.writeInt(previousBestFitness);
+            output.writeInt(generationsWithoutImprovement);
+            for (Individual individual : population) {
+                for (double parameter : individual.parameters) {
+                    output.writeDouble(parameter);
+                }
+                output.writeInt(individual.fitness);
+            }
+            output.flush();
+            channel.force(true);
+        } catch (IOException e) {
+            System.out.println("Failed to save checkpoint: " + e.getMessage());
+            System.err.println("Exception lors de la sauvegarde du point de reprise: " + e);
+            return;
+        }
+
+        try {
+            try {
+                Files.move(temporaryFile, checkpointFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporaryFile, checkpointFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            System.out.println("Failed to save checkpoint: " + e.getMessage());
+            System.err.println("Exception lors de la sauvegarde du point de reprise: " + e);
+        }
+    }
+
+    /**
+     * Restores a trainer from a checkpoint written after a generation, its training continuing with the next one.
+     */
+    public static GeneticTrainer resume(Path checkpointFile, AiExecutor executor) throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(checkpointFile)))) {
+            int magic = input.readInt();
+            int version = input.readInt();
+            // Version 1 checkpoints predate the racing flag, so they resume without racing unless --racing is passed
+            if (magic != CHECKPOINT_MAGIC || version < 1 || version > CHECKPOINT_VERSION) {
+                throw new IOException("Expected a checkpoint of version 1 to " + CHECKPOINT_VERSION + " but got "
+                        + Integer.toHexString(magic) + " version " + version);
+            }
+
+            boolean is3D = input.readBoolean();
+            boolean racing = version >= 2 && input.readBoolean();
+            List<Feature> features = new ArrayList<>();
+            for (int i = input.readInt(); i > 0; i--) {
+                features.add(Feature.fromName(input.readUTF()));
+            }
+            int populationSize = input.readInt();
+            int gamesPerEvaluation = input.readInt();
+            long seed = input.readLong();
+
+            GeneticTrainer trainer = new GeneticTrainer(populationSize, gamesPerEvaluation, is3D, features, executor, seed);
+            trainer.racing = racing;
+            trainer.generation = input.readInt();
+            trainer.currentMutationProbability = input.readDouble();
+            trainer.currentMutationRange = input.readDouble();
+            trainer.previousBestFitness = input.readInt();
+            trainer.generationsWithoutImprovement = input.readInt();
+            for (Individual individual : trainer.population) {
+                for (int i = 0; i < individual.parameters.length; i++) {
+                    individual.parameters[i] = input.readDouble();
+                }
+                individual.fitness = input.readInt();
+            }
+            return trainer;
+        }
+    }
+
+    public int getGeneration() {
+        return generation;
+    }
+
+    public int getPopulationSize() {
+        return populationSize;
+    }
+
+    public int getGamesPerEvaluation() {
+        return gamesPerEvaluation;
+    }
+
+    public boolean is3D() {
+        return is3D;
+    }
+
+    public boolean isRacing() {
+        return racing;
+    }
+
+    public List<Feature> getFeatures() {
+        return features;
+    }
+
     private void checkImprovement() {
         int currentBestFitness = population.getFirst().fitness;
 
         System.out.println("Best fitness: " + currentBestFitness + ", Mutation rate: " + currentMutationProbability + ", range: " + currentMutationRange);
-        System.out.println("Parameters: " + population.getFirst().parameters[0] + ", " + population.getFirst().parameters[1] + ", " + population.getFirst().parameters[2] + ", " + population.getFirst().parameters[3]);
+        StringJoiner parameters = new StringJoiner(", ", "Parameters: ", "");
+        for (double parameter : population.getFirst().parameters) {
+            parameters.add(String.valueOf(parameter));
+        }
+        System.out.println(parameters);
 
         if (currentBestFitness > previousBestFitness) {
             generationsWithoutImprovement = 0;
@@ -136,7 +409,7 @@ public class GeneticTrainer {
         int keepCount = (int) (populationSize * 0.2);
 
         for (int i = keepCount; i < populationSize; i++) {
-            double[] params = new double[4];
+            double[] params = new double[features.size()];
             for (int j = 0; j < params.length; j++) {
                 params[j] = random.nextDouble() * 2 - 1;
             }
@@ -144,103 +417,158 @@ public class GeneticTrainer {
         }
     }
 
+    /**
+     * Evaluates every individual on the same games, so that their fitnesses differ by their parameters rather than by
+     * the pieces they were dealt.
+     */
     private void evaluatePopulation() {
-        int numThreads = Runtime.getRuntime().availableProcessors();
-        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
-
-        try {
-            List<Future<Integer>> futures = new ArrayList<>();
-
-            for (Individual individual : population) {
-                futures.add(executor.submit(() -> evaluateIndividual(individual)));
-            }
-
-            for (int i = 0; i < futures.size(); i++) {
-                population.get(i).fitness = futures.get(i).get();
-            }
-        } catch (Exception e) {
-            System.out.println("Error during evaluation: " + e.getMessage());
-            System.err.println("Exception détaillée lors de l'évaluation de la population: " + e);
-        } finally {
-            executor.shutdown();
-        }
-    }
-
-    private int evaluateIndividual(Individual individual) {
-        int totalLinesCleared = 0;
         int piecesPerGame = getAdaptivePieceCount();
-
+        long[] gameSeeds = new long[gamesPerEvaluation];
         for (int game = 0; game < gamesPerEvaluation; game++) {
-            totalLinesCleared += runGame(individual.parameters, piecesPerGame);
+            gameSeeds[game] = random.nextLong();
+        }
+        byte[][] gamePieces = null;
+        if (workers != null) {
+            workers.setGames(gameSeeds, piecesPerGame);
+        } else {
+            gamePieces = recordGamePieces(gameSeeds, piecesPerGame);
+        }
+        for (Individual individual : population) {
+            individual.resetGames();
         }
 
-        return totalLinesCleared;
-    }
+        if (racing) {
+            List<Individual> racers = new ArrayList<>(population);
+            for (int fromGame = 0; fromGame < gamesPerEvaluation; fromGame += RACING_ROUND_GAMES) {
+                int toGame = Math.min(fromGame + RACING_ROUND_GAMES, gamesPerEvaluation);
+                playGames(racers, gamePieces, fromGame, toGame, piecesPerGame);
+                if (toGame < gamesPerEvaluation) {
+                    dropHopelessIndividuals(racers);
+                }
+            }
+            System.out.println("Racing: " + racers.size() + " of " + populationSize + " individuals played every game");
+            parentCount = racers.size();
+        } else {
+            playGames(population, gamePieces, 0, gamesPerEvaluation, piecesPerGame);
+            parentCount = populationSize;
+        }
 
-    private int getAdaptivePieceCount() {
-        double progressRatio = Math.min(1.0, (double) generationsWithoutImprovement / 5);
-        return MIN_PIECES_PER_GAME + (int) (progressRatio * (MAX_PIECES_PER_GAME - MIN_PIECES_PER_GAME));
+        for (Individual individual : population) {
+            individual.fitness = individual.gamesPlayed == 0 ? 0
+                    : (int) Math.round(individual.getMeanLines() * gamesPerEvaluation);
+        }
     }
 
-    private int runGame(double[] parameters, int maxPieces) {
-        Grid grid;
-        Piece nextPiece;
-        Piece currentPiece;
-        if (is3D) {
-            grid = new Grid3D(new TetrisVector(new int[]{Consts.GRID_WIDTH, Consts.GRID_HEIGHT, Consts.GRID_DEPTH}));
-            nextPiece = PieceGenerator.generate3DPiece(grid.getWidth(), grid.getHeight(), grid.getDepth());
-        } else {
-            grid = new Grid2D(new TetrisVector(new int[]{Consts.GRID_WIDTH, Consts.GRID_HEIGHT}));
-            nextPiece = PieceGenerator.generatePiece2D(grid.getWidth(), grid.getHeight());
+    /**
+     * @param gamePieces pieces of the games, or {@code null} when the {@link #setWorkers workers} play them
+     */
+    private void playGames(List<Individual> individuals, byte[][] gamePieces, int fromGame, int toGame,
+                           int piecesPerGame) {
+        if (workers != null) {
+            playRemoteGames(individuals, fromGame, toGame);
+            return;
         }
+        ExecutorService evaluations = executor.getOrchestrationExecutor();
 
-        Ai ai = new Ai(grid, new AIParameters(parameters[0], parameters[1], parameters[2], parameters[3]));
-        int linesCleared = 0;
-        int piecesWithoutLines = 0;
-
+        try {
+            List<Future<?>> futures = new ArrayList<>();
 
-        for (int piece = 0; piece < maxPieces; piece++) {
-            currentPiece = nextPiece;
-            if (grid instanceof Grid3D grid3D) {
-                nextPiece = PieceGenerator.generate3DPiece(grid.getWidth(), grid.getHeight(), grid3D.getDepth());
-            } else {
-                nextPiece = PieceGenerator.generatePiece2D(grid.getWidth(), grid.getHeight());
+            for (Individual individual : individuals) {
+                futures.add(evaluations.submit(() -> evaluateIndividual(individual, gamePieces, fromGame, toGame, piecesPerGame)));
             }
 
-            if (grid.checkCollision(currentPiece)) {
-                break;
+            for (Future<?> future : futures) {
+                future.get();
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Evaluation interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Error during evaluation: " + e.getCause(), e);
+        }
+    }
 
-            ai.makeMove(currentPiece, nextPiece);
-            int newLines = grid.clearFullLines();
-            linesCleared += newLines;
+    private void playRemoteGames(List<Individual> individuals, int fromGame, int toGame) {
+        try {
+            List<CompletableFuture<int[]>> results = new ArrayList<>(individuals.size());
 
-            if (newLines > 0) {
-                piecesWithoutLines = 0;
-            } else {
-                piecesWithoutLines++;
+            for (Individual individual : individuals) {
+                results.add(workers.submit(individual.parameters, fromGame, toGame));
             }
 
-            int maxHeight = 0;
-            if (grid instanceof Grid3D grid3D) {
-                for (int i = 0; i < grid.getWidth(); i++) {
-                    for (int j = 0; j < grid3D.getDepth(); j++) {
-                        maxHeight = Math.max(maxHeight, grid3D.getHeightOfColumn3D(i, j));
-                    }
-                }
-            } else {
-                Grid2D grid2D = (Grid2D) grid;
-                for (int i = 0; i < grid.getWidth(); i++) {
-                    maxHeight = Math.max(maxHeight, grid2D.getHeightOfColumn2D(i));
+            for (int i = 0; i < results.size(); i++) {
+                for (int lines : results.get(i).get()) {
+                    individuals.get(i).addGame(lines);
                 }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Evaluation interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Error during evaluation: " + e.getCause(), e);
+        }
+    }
 
-            if (piecesWithoutLines > 25 && maxHeight > grid.getHeight() * 0.7) {
-                break;
-            }
+    /**
+     * Drops the individuals whose best plausible fitness is below the worst plausible fitness of the
+     * {@link #getRacingPoolSize() individuals that can be selected}, all the racers having played the same games.
+     */
+    private void dropHopelessIndividuals(List<Individual> racers) {
+        int keptCount = getRacingPoolSize();
+        if (racers.size() <= keptCount) {
+            return;
+        }
+
+        double[] lowerBounds = new double[racers.size()];
+        for (int i = 0; i < lowerBounds.length; i++) {
+            Individual racer = racers.get(i);
+            lowerBounds[i] = racer.getMeanLines() - racer.getMeanLinesMargin();
         }
+        Arrays.sort(lowerBounds);
+        double threshold = lowerBounds[lowerBounds.length - keptCount];
 
-        return linesCleared;
+        for (Individual racer : racers) {
+            racer.dropped = racer.getMeanLines() + racer.getMeanLinesMargin() < threshold;
+        }
+        racers.removeIf(racer -> racer.dropped);
+    }
+
+    /**
+     * Best individuals racing until the last game: the ones kept at the next generation, and enough of the best ones
+     * for a tournament to pick its winner among them but once in {@value #RACING_TOURNAMENT_MISSES} tournaments.
+     */
+    private int getRacingPoolSize() {
+        double missedShare = Math.pow(1.0 / RACING_TOURNAMENT_MISSES, 1.0 / TOURNAMENT_SIZE);
+        int tournamentPoolSize = (int) Math.ceil(populationSize * (1 - missedShare));
+        return Math.max(populationSize - OFFSPRING_COUNT, tournamentPoolSize);
+    }
+
+    /**
+     * Draws the pieces of the games of a generation once, the arrays then being shared read-only by the evaluations.
+     */
+    private byte[][] recordGamePieces(long[] gameSeeds, int piecesPerGame) {
+        Simulator simulator = simulators.get();
+        byte[][] gamePieces = new byte[gameSeeds.length][];
+        for (int game = 0; game < gameSeeds.length; game++) {
+            gamePieces[game] = simulator.recordPieces(gameSeeds[game], piecesPerGame);
+        }
+        return gamePieces;
+    }
+
+    private void evaluateIndividual(Individual individual, byte[][] gamePieces, int fromGame, int toGame,
+                                    int piecesPerGame) {
+        Simulator simulator = simulators.get();
+        // Individuals are already evaluated in parallel, so each game searches on its own thread
+        Evaluator evaluator = new LinearEvaluator(features, individual.parameters);
+
+        for (int game = fromGame; game < toGame; game++) {
+            individual.addGame(simulator.play(evaluator, gamePieces[game], piecesPerGame).linesCleared());
+        }
+    }
+
+    private int getAdaptivePieceCount() {
+        double progressRatio = Math.min(1.0, (double) generationsWithoutImprovement / 5);
+        return MIN_PIECES_PER_GAME + (int) (progressRatio * (MAX_PIECES_PER_GAME - MIN_PIECES_PER_GAME));
     }
 
     private List<Individual> createOffspring() {
@@ -268,7 +596,9 @@ public class GeneticTrainer {
         }
 
         tournament.sort(Collections.reverseOrder());
-        return tournament.getFirst();
+        Individual winner = tournament.getFirst();
+        // Only dropped racers were drawn, which racing makes rare, so the closest individual that played every game wins
+        return winner.dropped ? population.get(parentCount - 1) : winner;
     }
 
     private Individual crossover(Individual parent1, Individual parent2) {
@@ -280,8 +610,8 @@ public class GeneticTrainer {
         double weight1 = totalFitness == 0 ? 0.5 : parent1.fitness / totalFitness;
         double weight2 = totalFitness == 0 ? 0.5 : parent2.fitness / totalFitness;
 
-        double[] childParams = new double[4];
-        for (int i = 0; i < 4; i++) {
+        double[] childParams = new double[parent1.parameters.length];
+        for (int i = 0; i < childParams.length; i++) {
             childParams[i] = parent1.parameters[i] * weight1 + parent2.parameters[i] * weight2;
         }
 
@@ -290,7 +620,7 @@ public class GeneticTrainer {
 
     private Individual sphericalInterpolation(Individual parent1, Individual parent2) {
         double dotProduct = 0;
-        for (int i = 0; i < 4; i++) {
+        for (int i = 0; i < parent1.parameters.length; i++) {
             dotProduct += parent1.parameters[i] * parent2.parameters[i];
         }
         dotProduct = Math.max(-1, Math.min(1, dotProduct));
@@ -306,11 +636,11 @@ public class GeneticTrainer {
         t = t * 0.8 + random.nextDouble() * 0.2;
 
         double sinTheta = Math.sin(theta);
-        double[] childParams = new double[4];
+        double[] childParams = new double[parent1.parameters.length];
         double scale1 = Math.sin((1 - t) * theta) / sinTheta;
         double scale2 = Math.sin(t * theta) / sinTheta;
 
-        for (int i = 0; i < 4; i++) {
+        for (int i = 0; i < childParams.length; i++) {
             childParams[i] = parent1.parameters[i] * scale1 + parent2.parameters[i] * scale2;
         }
 
@@ -318,7 +648,7 @@ public class GeneticTrainer {
     }
 
     private void mutate(Individual individual) {
-        int paramIndex = random.nextInt(4);
+        int paramIndex = random.nextInt(individual.parameters.length);
         double adjustment = (random.nextDouble() * 2 - 1) * currentMutationRange;
         individual.parameters[paramIndex] += adjustment;
         individual.parameters = Individual.normalize(individual.parameters);
@@ -336,56 +666,150 @@ public class GeneticTrainer {
         int populationSize = POPULATION_SIZE;
         int gamesPerEvaluation = GAMES_PER_EVALUATION;
         boolean is3D = false;
+        boolean virtualThreads = false;
+        boolean racing = false;
+        boolean resume = false;
+        Long seed = null;
+        String checkpointFile = null;
+        int workerCount = 0;
+        List<List<String>> workerCommands = new ArrayList<>();
         String outputFile = null;
+        List<Feature> features = AIParameters.FEATURES;
 
         for (int i = 0; i < args.length; i++) {
             switch (args[i]) {
                 case "--generations":
-                    if (i + 1 < args.length) generations = parseIntArg(args[++i], generations);
+                    if (i + 1 < args.length) generations = CommandLineArgs.parseIntArg(args[++i], generations);
                     break;
                 case "--population":
-                    if (i + 1 < args.length) populationSize = parseIntArg(args[++i], populationSize);
+                    if (i + 1 < args.length) populationSize = CommandLineArgs.parseIntArg(args[++i], populationSize);
                     break;
                 case "--games":
-                    if (i + 1 < args.length) gamesPerEvaluation = parseIntArg(args[++i], gamesPerEvaluation);
+                    if (i + 1 < args.length) gamesPerEvaluation = CommandLineArgs.parseIntArg(args[++i], gamesPerEvaluation);
                     break;
                 case "--output":
                     if (i + 1 < args.length) outputFile = args[++i];
                     break;
+                case "--checkpoint":
+                    if (i + 1 < args.length) checkpointFile = args[++i];
+                    break;
+                case "--resume":
+                    resume = true;
+                    break;
+                case "--seed":
+                    if (i + 1 < args.length) seed = CommandLineArgs.parseLongArg(args[++i], ThreadLocalRandom.current().nextLong());
+                    break;
+                case "--features":
+                    if (i + 1 < args.length) {
+                        try {
+                            features = Feature.parseList(args[++i]);
+                        } catch (IllegalArgumentException e) {
+                            System.out.println(e.getMessage());
+                            printHelp();
+                            return;
+                        }
+                    }
+                    break;
                 case "--3D":
                     is3D = true;
                     break;
+                case "--virtual-threads":
+                    virtualThreads = true;
+                    break;
+                case "--racing":
+                    racing = true;
+                    break;
+                case "--workers":
+                    if (i + 1 < args.length) workerCount = CommandLineArgs.parseIntArg(args[++i], workerCount);
+                    break;
+                case "--worker-command":
+                    if (i + 1 < args.length) workerCommands.add(List.of(args[++i].trim().split("\\s+")));
+                    break;
                 case "--help":
                     printHelp();
                     return;
             }
         }
 
-        System.out.println("Starting genetic training with:");
-        System.out.println("  Generations: " + generations);
-        System.out.println("  Population size: " + populationSize);
-        System.out.println("  Games per evaluation: " + gamesPerEvaluation);
+        if (resume && checkpointFile == null) {
+            System.out.println("--resume requires a --checkpoint file");
+            printHelp();
+            return;
+        }
 
-        GeneticTrainer trainer = new GeneticTrainer(populationSize, gamesPerEvaluation, is3D);
-        double[] bestParameters = trainer.train(generations);
+        if (workerCommands.isEmpty() && workerCount > 0) {
+            workerCommands.add(FitnessWorkers.localCommand());
+        }
+        List<List<String>> workerProcesses = new ArrayList<>();
+        for (List<String> command : workerCommands) {
+            for (int i = 0; i < Math.max(1, workerCount); i++) {
+                workerProcesses.add(command);
+            }
+        }
 
-        System.out.println("Optimal parameters found:");
-        System.out.println("Height Weight: " + bestParameters[0]);
-        System.out.println("Lines Weight: " + bestParameters[1]);
-        System.out.println("Holes Weight: " + bestParameters[2]);
-        System.out.println("Bumpiness Weight: " + bestParameters[3]);
+        double[] bestParameters;
+        FitnessWorkers workers = null;
+        try (AiExecutor executor = new AiExecutor(Runtime.getRuntime().availableProcessors(), virtualThreads)) {
+            GeneticTrainer trainer;
+            if (resume) {
+                try {
+                    trainer = resume(Path.of(checkpointFile), executor);
+                } catch (IOException | IllegalArgumentException e) {
+                    System.out.println("Failed to resume training: " + e.getMessage());
+                    return;
+                }
+                populationSize = trainer.getPopulationSize();
+                gamesPerEvaluation = trainer.getGamesPerEvaluation();
+                features = trainer.getFeatures();
+                racing |= trainer.isRacing();
+                System.out.println("Resuming training from " + checkpointFile + " after generation " + trainer.getGeneration());
+            } else {
+                long trainerSeed = seed != null ? seed : ThreadLocalRandom.current().nextLong();
+                trainer = new GeneticTrainer(populationSize, gamesPerEvaluation, is3D, features, executor, trainerSeed);
+                System.out.println("Starting genetic training with seed " + trainerSeed);
+            }
 
-        if (outputFile != null) {
-            saveParametersToFile(bestParameters, outputFile);
+            System.out.println("  Generations: " + generations);
+            System.out.println("  Population size: " + populationSize);
+            System.out.println("  Games per evaluation: " + gamesPerEvaluation);
+            System.out.println("  Features: " + features.stream().map(Feature::getName).toList());
+            System.out.println("  Racing: " + racing);
+
+            if (!workerProcesses.isEmpty()) {
+                System.out.println("  Worker processes: " + workerProcesses.size());
+                workers = new FitnessWorkers(workerProcesses, trainer.is3D(), features);
+                trainer.setWorkers(workers);
+            }
+
+            trainer.setRacing(racing);
+            if (checkpointFile != null) {
+                trainer.setCheckpointFile(Path.of(checkpointFile));
+            }
+            bestParameters = trainer.train(generations);
+        } catch (IllegalStateException e) {
+            System.out.println("Training aborted: " + e.getMessage());
+            if (checkpointFile != null) {
+                System.out.println("Resume it from " + checkpointFile + " with --resume");
+            }
+            System.err.println("Exception détaillée lors de l'entraînement: " + e);
+            bestParameters = null;
+        } finally {
+            if (workers != null) {
+                workers.close();
+            }
         }
-    }
 
-    private static int parseIntArg(String arg, int defaultValue) {
-        try {
-            return Integer.parseInt(arg);
-        } catch (NumberFormatException e) {
-            System.out.println("Invalid value, using default: " + defaultValue);
-            return defaultValue;
+        if (bestParameters == null) {
+            System.exit(1);
+        }
+
+        System.out.println("Optimal parameters found:");
+        for (int i = 0; i < features.size(); i++) {
+            System.out.println(features.get(i).getName() + " weight: " + bestParameters[i]);
+        }
+
+        if (outputFile != null) {
+            saveParametersToFile(features, bestParameters, outputFile);
         }
     }
 
@@ -395,20 +819,31 @@ public class GeneticTrainer {
         System.out.println("Options:");
         System.out.println("  --generations <num>  Number of generations (default: 50)");
         System.out.println("  --population <num>   Population size (default: 1000)");
-        System.out.println("  --games <num>        Games per evaluation (default: 100)");
+        System.out.println("  --games <num>        Games per evaluation, the same for every individual (default: 30)");
         System.out.println("  --output <filename>  Save parameters to file");
+        System.out.println("  --checkpoint <file>  Save the state of the training to file after each generation");
+        System.out.println("  --resume             Resume the training saved in the checkpoint file, keeping its");
+        System.out.println("                       population size, games per evaluation, features, mode and racing");
+        System.out.println("  --seed <num>         Seed of the training (default: random)");
+        System.out.println("  --features <list>    Comma separated features to weigh (default: height,lines,bumpiness,holes)");
+        System.out.println("                       Available: " + String.join(",",
+                Arrays.stream(Feature.values()).map(Feature::getName).toList()));
         System.out.println("  --3D                 Train 3D Tetris");
+        System.out.println("  --virtual-threads    Evaluate the individuals on virtual threads");
+        System.out.println("  --racing             Stop evaluating the individuals that cannot be selected");
+        System.out.println("  --workers <num>      Evaluate the individuals in worker processes, <num> per worker command");
+        System.out.println("  --worker-command <c> Command starting a FitnessWorker, e.g. \"ssh host java -cp pie.jar");
+        System.out.println("                       fr.polytech.pie.model.FitnessWorker\" (repeatable, default: this JVM)");
         System.out.println("  --help               Display this help message");
     }
 
-    private static void saveParametersToFile(double[] parameters, String filename) {
+    private static void saveParametersToFile(List<Feature> features, double[] parameters, String filename) {
         try (PrintWriter writer = new PrintWriter(new FileWriter(filename))) {
             writer.println("// Tetris AI parameters generated by GeneticTrainer");
             writer.println("// " + new Date());
-            writer.println("double heightWeight = " + parameters[0] + ";");
-            writer.println("double linesWeight = " + parameters[1] + ";");
-            writer.println("double holesWeight = " + parameters[2] + ";");
-            writer.println("double bumpinessWeight = " + parameters[3] + ";");
+            for (int i = 0; i < features.size(); i++) {
+                writer.println("double " + features.get(i).getName() + "Weight = " + parameters[i] + ";");
+            }
             System.out.println("Parameters saved to " + filename);
         } catch (Exception e) {
             System.out.println("Failed to save parameters: " + e.getMessage());
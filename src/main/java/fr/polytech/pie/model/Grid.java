@@ -3,15 +3,38 @@ package fr.polytech.pie.model;
 import fr.polytech.pie.model.twoD.Grid2D;
 import fr.polytech.pie.model.threeD.Grid3D;
 
+import java.util.HashSet;
 import java.util.Set;
 
 public abstract class Grid {
     protected final TetrisVector size;
+    /**
+     * Zobrist hash of the occupancy: the xor of {@link #zobristKey} over the filled cells.
+     */
+    protected long hash;
 
     public Grid(TetrisVector size) {
         this.size = size;
     }
 
+    /**
+     * Zobrist hash of the filled cells, maintained as cells are set and cleared. Colors are not part of it.
+     */
+    public long getHash() {
+        return hash;
+    }
+
+    /**
+     * Random key of a cell, indexed {@code (y * depth + z) * width + x}. The keys are derived with the SplitMix64
+     * finalizer rather than stored, so grids of any size share them.
+     */
+    protected static long zobristKey(int cell) {
+        long key = (cell + 1) * 0x9E3779B97F4A7C15L;
+        key = (key ^ (key >>> 30)) * 0xBF58476D1CE4E5B9L;
+        key = (key ^ (key >>> 27)) * 0x94D049BB133111EBL;
+        return key ^ (key >>> 31);
+    }
+
     public int getWidth() {
         return size.getX();
     }
@@ -42,9 +65,180 @@ public abstract class Grid {
 
     public abstract Grid copy();
 
+    /**
+     * Overwrites this grid with the content of a grid of the same type and size, without allocating.
+     */
+    public abstract void copyFrom(Grid other);
+
+    /**
+     * Freezes the piece and clears the lines it completes, without allocating. {@link #undo} restores the grid.
+     *
+     * @return the undo record, bit {@code j} being set when row {@code y + j} of the piece was cleared
+     */
+    public int play(Piece piece) {
+        freezePiece(piece);
+        if (clearFullLines(true) == 0) {
+            return 0;
+        }
+
+        // From the top, so that the rows left to clear keep their index
+        int y = piece.getPosition().getY();
+        int record = 0;
+        for (int j = piece.getHeight() - 1; j >= 0; j--) {
+            if (y + j < getHeight() && isLineFull(y + j)) {
+                removeLine(y + j);
+                record |= 1 << j;
+            }
+        }
+
+        if (record != 0) {
+            recalculateFeatures();
+        }
+        return record;
+    }
+
+    /**
+     * Reverts the {@link #play} of the piece that returned the record. Plays must be undone in reverse order.
+     * The occupancy, hash and features are restored exactly, the colors of the cleared lines are not.
+     */
+    public void undo(Piece piece, int record) {
+        if (record != 0) {
+            int y = piece.getPosition().getY();
+            for (int j = 0; j < piece.getHeight(); j++) {
+                if ((record & 1 << j) != 0) {
+                    insertFullLine(y + j);
+                }
+            }
+            recalculateFeatures();
+        }
+
+        removePiece(piece);
+    }
+
+    protected abstract boolean isLineFull(int y);
+
+    /**
+     * Removes line {@code y}, moving the lines above it down and leaving an empty line at the top.
+     * The features must be recalculated afterwards.
+     */
+    protected abstract void removeLine(int y);
+
+    /**
+     * Inverse of {@link #removeLine}: moves line {@code y} and the lines above it up, dropping the empty top line, and
+     * fills line {@code y}. The features must be recalculated afterwards.
+     */
+    protected abstract void insertFullLine(int y);
+
+    /**
+     * Recomputes the column caches and the hash from the occupancy.
+     */
+    protected abstract void recalculateFeatures();
+
+    /**
+     * Number of holes, a hole being a run of empty cells under the top of a column. Maintained incrementally.
+     */
     public abstract int getHoles();
 
-    public abstract Set<Piece> getPiecesPossibilities(Piece piece);
+    /**
+     * Sum of the column heights. Maintained incrementally.
+     */
+    public abstract int getAggregateHeight();
+
+    /**
+     * Sum of the height differences between neighbouring columns. Maintained incrementally.
+     */
+    public abstract int getBumpiness();
+
+    /**
+     * Number of filled cells of row {@code y}.
+     */
+    public abstract int getRowFillCount(int y);
+
+    public int getMaxHeight() {
+        for (int y = getHeight() - 1; y >= 0; y--) {
+            if (getRowFillCount(y) > 0) {
+                return y + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Computes the features of the mask, a union of {@link Feature#bit()}, for the grid on which {@code placed} was
+     * just frozen. {@code values} is indexed by {@link Feature#ordinal()}; the features outside the mask are left
+     * untouched.
+     */
+    public void computeFeatures(int mask, Piece placed, int[] values) {
+        int lines = clearFullLines(true);
+
+        if (has(mask, Feature.AGGREGATE_HEIGHT)) {
+            values[Feature.AGGREGATE_HEIGHT.ordinal()] = getAggregateHeight();
+        }
+        if (has(mask, Feature.COMPLETED_LINES)) {
+            values[Feature.COMPLETED_LINES.ordinal()] = lines;
+        }
+        if (has(mask, Feature.BUMPINESS)) {
+            values[Feature.BUMPINESS.ordinal()] = getBumpiness();
+        }
+        if (has(mask, Feature.HOLES)) {
+            values[Feature.HOLES.ordinal()] = getHoles();
+        }
+        if (has(mask, Feature.LANDING_HEIGHT)) {
+            values[Feature.LANDING_HEIGHT.ordinal()] = placed.getPosition().getY() + placed.getHeight() / 2;
+        }
+        if (has(mask, Feature.ERODED_CELLS)) {
+            values[Feature.ERODED_CELLS.ordinal()] = lines == 0 ? 0 : lines * countCellsInFullLines(placed);
+        }
+        if (has(mask, Feature.MAX_HEIGHT)) {
+            values[Feature.MAX_HEIGHT.ordinal()] = getMaxHeight();
+        }
+
+        int lineFeatures = Feature.ROW_TRANSITIONS.bit() | Feature.COLUMN_TRANSITIONS.bit()
+                | Feature.WELLS.bit() | Feature.CUMULATIVE_WELLS.bit();
+        if ((mask & lineFeatures) != 0) {
+            computeLineFeatures(mask, values);
+        }
+    }
+
+    private static boolean has(int mask, Feature feature) {
+        return (mask & feature.bit()) != 0;
+    }
+
+    /**
+     * Computes the transition and well features of the mask in one pass over the occupancy bits of the lines.
+     */
+    protected abstract void computeLineFeatures(int mask, int[] values);
+
+    /**
+     * Number of cells of the frozen piece lying in full lines.
+     */
+    protected abstract int countCellsInFullLines(Piece piece);
+
+    /**
+     * Fills the buffer with every placement the piece reaches by a hard drop from the top of the grid, computed from
+     * the column heights and the bottom profile of each orientation.
+     */
+    public abstract void getPlacements(Piece piece, Placements placements);
+
+    /**
+     * Copy of the piece moved to the placement.
+     */
+    public Piece toPiece(Piece piece, int placement) {
+        Piece placed = piece.clone();
+        Placements.apply(placed, placement);
+        return placed;
+    }
+
+    public Set<Piece> getPiecesPossibilities(Piece piece) {
+        Placements placements = new Placements();
+        getPlacements(piece, placements);
+
+        Set<Piece> possibilities = new HashSet<>();
+        for (int i = 0; i < placements.size(); i++) {
+            possibilities.add(toPiece(piece, placements.get(i)));
+        }
+        return possibilities;
+    }
 
     public boolean isOutOfBounds(TetrisVector position) {
         for (int i = 0; i < position.getSize(); i++) {
@@ -0,0 +1,72 @@
+package fr.polytech.pie.model;
+
+/**
+ * Durations counted in power-of-two buckets of nanoseconds, cheap enough to record every move.
+ * A histogram is not thread safe: each thread records into its own, merged with {@link #add} afterwards.
+ */
+public final class LatencyHistogram {
+    private static final int BUCKETS = 64;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long total;
+    private long max;
+
+    /**
+     * Bucket of a duration, bucket {@code i} holding the durations from {@code 2^i} inclusive to {@code 2^(i+1)}.
+     */
+    public static int bucketOf(long nanos) {
+        return 63 - Long.numberOfLeadingZeros(Math.max(1, nanos));
+    }
+
+    public void record(long nanos) {
+        counts[bucketOf(nanos)]++;
+        count++;
+        total += nanos;
+        max = Math.max(max, nanos);
+    }
+
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        total += other.total;
+        max = Math.max(max, other.max);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getCount(int bucket) {
+        return counts[bucket];
+    }
+
+    public int getBucketCount() {
+        return BUCKETS;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0 : (double) total / count;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Upper bound of the bucket holding the {@code quantile} of the durations, so at most twice the exact value.
+     */
+    public long getPercentile(double quantile) {
+        long rank = (long) Math.ceil(quantile * count);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0) {
+                return Math.min(max, i == BUCKETS - 1 ? Long.MAX_VALUE : (1L << (i + 1)) - 1);
+            }
+        }
+        return max;
+    }
+}
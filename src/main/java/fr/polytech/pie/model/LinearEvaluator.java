@@ -0,0 +1,82 @@
+package fr.polytech.pie.model;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Weighted sum of any subset of the features.
+ */
+public final class LinearEvaluator implements Evaluator {
+    private final List<Feature> features;
+    private final double[] weights;
+    private final boolean bounded;
+
+    public LinearEvaluator(List<Feature> features, double[] weights) {
+        if (features.size() != weights.length) {
+            throw new IllegalArgumentException("Expected " + features.size() + " weights but got " + weights.length);
+        }
+
+        this.features = List.copyOf(features);
+        this.weights = weights.clone();
+
+        boolean bounded = true;
+        for (int f = 0; f < weights.length; f++) {
+            Feature feature = this.features.get(f);
+            if (weights[f] > 0 && feature != Feature.COMPLETED_LINES && feature != Feature.ERODED_CELLS) {
+                bounded = false;
+            }
+        }
+        this.bounded = bounded;
+    }
+
+    @Override
+    public List<Feature> getFeatures() {
+        return features;
+    }
+
+    public double[] getWeights() {
+        return weights.clone();
+    }
+
+    /**
+     * A dropped piece lands above the top of the columns it covers, so the aggregate height grows by its cells and
+     * the holes and the highest column remain. It completes at most one line per cell. The bound is only known when
+     * these are the features weighted positively, the others being at least zero.
+     */
+    @Override
+    public double getDropBound(Grid grid, int cells, int clearedLines) {
+        if (!bounded) {
+            return Double.POSITIVE_INFINITY;
+        }
+
+        double bound = 0;
+        for (int f = 0; f < weights.length; f++) {
+            double weight = weights[f];
+            bound += switch (features.get(f)) {
+                case AGGREGATE_HEIGHT -> weight * (grid.getAggregateHeight() + cells);
+                case HOLES -> weight * grid.getHoles();
+                case MAX_HEIGHT -> weight * grid.getMaxHeight();
+                case COMPLETED_LINES -> weight * (weight > 0 ? clearedLines + cells : clearedLines);
+                case ERODED_CELLS -> weight > 0 ? weight * cells * cells : 0;
+                default -> 0;
+            };
+        }
+        return bound;
+    }
+
+    /**
+     * One feature column at a time, so that the inner loop is a plain multiply-add over primitive arrays.
+     */
+    @Override
+    public void evaluate(int[][] values, int count, double[] scores) {
+        Arrays.fill(scores, 0, count, 0);
+
+        for (int f = 0; f < weights.length; f++) {
+            double weight = weights[f];
+            int[] column = values[f];
+            for (int i = 0; i < count; i++) {
+                scores[i] += weight * column[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package fr.polytech.pie.model;
+
+/**
+ * Lists the placements the AI may choose between for a piece on a grid.
+ */
+@FunctionalInterface
+public interface MoveGenerator {
+    /**
+     * Hard drops of every orientation from the top of the grid.
+     */
+    MoveGenerator HARD_DROP = Grid::getPlacements;
+
+    /**
+     * Every resting placement reachable from the current piece state with the moves a player has.
+     */
+    MoveGenerator REACHABLE = new ReachabilitySearch();
+
+    void generate(Grid grid, Piece piece, Placements placements);
+}
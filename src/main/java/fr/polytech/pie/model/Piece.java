@@ -9,9 +9,17 @@ public abstract class Piece implements Cloneable {
 
     protected PieceColor color;
 
+    /**
+     * Creates a red piece, {@link PieceGenerator} and {@link PieceSource} drawing the color of the pieces they generate.
+     */
     public Piece(TetrisVector position) {
         this.position = position;
-        this.color = PieceColor.values()[(int) (Math.random() * (PieceColor.values().length - 2) + 1)]; // Skip empty and preview pieces
+        this.color = PieceColor.Red;
+    }
+
+    public void setColor(PieceColor color) {
+        this.color = color;
+        setOrientation(getOrientation());
     }
 
     public TetrisVector getPosition() {
@@ -26,6 +34,20 @@ public abstract class Piece implements Cloneable {
 
     public abstract int getHeight();
 
+    /**
+     * Number of cells of the piece, the same in every orientation.
+     */
+    public abstract int getCellCount();
+
+    /**
+     * Index of the current orientation among the {@link #getOrientationCount()} distinct orientations of the shape.
+     */
+    public abstract int getOrientation();
+
+    public abstract void setOrientation(int orientation);
+
+    public abstract int getOrientationCount();
+
     public void translate(TetrisVector addedPosition) {
         this.position.add(addedPosition);
     }
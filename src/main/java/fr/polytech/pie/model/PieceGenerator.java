@@ -1,9 +1,15 @@
 package fr.polytech.pie.model;
 
 import fr.polytech.pie.model.twoD.Piece2D;
+import fr.polytech.pie.model.twoD.RotationTable2D;
 import fr.polytech.pie.model.threeD.Piece3D;
+import fr.polytech.pie.model.threeD.RotationTable3D;
 
-import java.util.Random;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.random.RandomGenerator;
 
 public class PieceGenerator {
     private static final boolean[][][] PIECES_2D = {
@@ -76,14 +82,63 @@ public class PieceGenerator {
             }
     };
 
-    private static final Random random = new Random();
+    private static final RotationTable2D[] ROTATIONS_2D = new RotationTable2D[PIECES_2D.length];
+    private static final RotationTable3D[] ROTATIONS_3D = new RotationTable3D[PIECES_3D.length];
+
+    static {
+        for (int i = 0; i < PIECES_2D.length; i++) {
+            ROTATIONS_2D[i] = RotationTable2D.of(PIECES_2D[i]);
+        }
+        for (int i = 0; i < PIECES_3D.length; i++) {
+            ROTATIONS_3D[i] = RotationTable3D.of(PIECES_3D[i]);
+        }
+    }
+
+    /**
+     * Colors of the pieces, skipping the empty and preview colors.
+     */
+    private static final PieceColor[] COLORS = Arrays.copyOfRange(PieceColor.values(), 1, PieceColor.values().length - 1);
+
+    static PieceColor randomColor(RandomGenerator random) {
+        return COLORS[random.nextInt(COLORS.length)];
+    }
+
+    /**
+     * One piece of each 2D shape, all equally likely to be generated.
+     */
+    public static List<Piece> getShapes2D() {
+        List<Piece> shapes = new ArrayList<>(ROTATIONS_2D.length);
+        for (RotationTable2D rotations : ROTATIONS_2D) {
+            shapes.add(new Piece2D(rotations, 0, new TetrisVector(new int[]{0, 0})));
+        }
+        return shapes;
+    }
+
+    /**
+     * One piece of each 3D shape, all equally likely to be generated.
+     */
+    public static List<Piece> getShapes3D() {
+        List<Piece> shapes = new ArrayList<>(ROTATIONS_3D.length);
+        for (RotationTable3D rotations : ROTATIONS_3D) {
+            shapes.add(new Piece3D(rotations, 0, new TetrisVector(new int[]{0, 0, 0})));
+        }
+        return shapes;
+    }
 
     public static Piece2D generatePiece2D(int maxX, int maxY) {
+        return generatePiece2D(maxX, maxY, ThreadLocalRandom.current());
+    }
+
+    /**
+     * Same as {@link #generatePiece2D(int, int)}, drawing from the given generator so that games can be replayed.
+     */
+    public static Piece2D generatePiece2D(int maxX, int maxY, RandomGenerator random) {
         int pieceIndex = random.nextInt(PIECES_2D.length);
-        var piece = new Piece2D(PIECES_2D[pieceIndex], new TetrisVector(new int[]{0, 0}));
+        var piece = new Piece2D(ROTATIONS_2D[pieceIndex], 0, new TetrisVector(new int[]{0, 0}));
+        piece.setColor(randomColor(random));
 
         if (random.nextBoolean()) {
-            rotate2DPieceRandomly(piece);
+            rotate2DPieceRandomly(piece, random);
         }
 
         piece.getPosition().setX(random.nextInt(maxX - piece.getWidth() + 1));
@@ -92,7 +147,7 @@ public class PieceGenerator {
         return piece;
     }
 
-    private static void rotate2DPieceRandomly(Piece2D piece) {
+    private static void rotate2DPieceRandomly(Piece2D piece, RandomGenerator random) {
         int rotations = random.nextInt(4);
 
         if (rotations == 0) {
@@ -105,11 +160,19 @@ public class PieceGenerator {
     }
 
     public static Piece3D generate3DPiece(int maxX, int maxY, int maxZ) {
+        return generate3DPiece(maxX, maxY, maxZ, ThreadLocalRandom.current());
+    }
+
+    /**
+     * Same as {@link #generate3DPiece(int, int, int)}, drawing from the given generator so that games can be replayed.
+     */
+    public static Piece3D generate3DPiece(int maxX, int maxY, int maxZ, RandomGenerator random) {
         int pieceIndex = random.nextInt(PIECES_3D.length);
 
-        var piece = new Piece3D(PIECES_3D[pieceIndex], new TetrisVector(new int[]{0, 0, 0}));
+        var piece = new Piece3D(ROTATIONS_3D[pieceIndex], 0, new TetrisVector(new int[]{0, 0, 0}));
+        piece.setColor(randomColor(random));
         if (random.nextBoolean()) {
-            rotate3DPieceRandomly(piece);
+            rotate3DPieceRandomly(piece, random);
         }
 
 
@@ -120,7 +183,7 @@ public class PieceGenerator {
         return piece;
     }
 
-    private static void rotate3DPieceRandomly(Piece3D piece) {
+    private static void rotate3DPieceRandomly(Piece3D piece, RandomGenerator random) {
         int rotations = random.nextInt(4);
 
         if (rotations == 0) {
@@ -0,0 +1,132 @@
+package fr.polytech.pie.model;
+
+import fr.polytech.pie.model.threeD.Grid3D;
+import fr.polytech.pie.model.threeD.Piece3D;
+
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Seeded sequence of the pieces of a game: uniform shape, orientation, color and position at the top of the grid, the
+ * same seed always giving the same pieces. A source is confined to one thread and draws without allocating: the
+ * pieces are recycled, each one staying valid until two more pieces of its shape are drawn, which covers the current
+ * and the next piece of a game.
+ * <p>
+ * A sequence can also be {@linkplain #record recorded} once into a compact array and {@linkplain #replay replayed} by
+ * the sources of several threads, so that they all play the same pieces without drawing them again.
+ */
+public final class PieceSource {
+    /**
+     * Bytes of a recorded piece: shape and color, orientation, x and z.
+     */
+    public static final int BYTES_PER_PIECE = 4;
+
+    private static final PieceColor[] COLORS = PieceColor.values();
+
+    private final int width;
+    private final int height;
+    private final int depth;
+    private final boolean is3D;
+    private final Piece[][] pieces;
+    private final int[] nextSlot;
+    private SplittableRandom random;
+    private byte[] sequence;
+    private int sequenceIndex;
+    private int lastShape;
+
+    public PieceSource(Grid grid, long seed) {
+        this.width = grid.getWidth();
+        this.height = grid.getHeight();
+        this.is3D = grid instanceof Grid3D;
+        this.depth = is3D ? grid.getDepth() : 1;
+
+        List<Piece> shapes = is3D ? PieceGenerator.getShapes3D() : PieceGenerator.getShapes2D();
+        this.pieces = new Piece[shapes.size()][];
+        for (int shape = 0; shape < shapes.size(); shape++) {
+            pieces[shape] = new Piece[]{shapes.get(shape), shapes.get(shape).clone()};
+        }
+        this.nextSlot = new int[shapes.size()];
+        reset(seed);
+    }
+
+    /**
+     * Restarts the sequence of the seed.
+     */
+    public void reset(long seed) {
+        random = new SplittableRandom(seed);
+        sequence = null;
+    }
+
+    /**
+     * Replays a sequence {@linkplain #record recorded} on a grid of the same size. The array is only read, so it can
+     * be shared by the sources of several threads.
+     */
+    public void replay(byte[] sequence) {
+        if (sequence.length % BYTES_PER_PIECE != 0) {
+            throw new IllegalArgumentException("Expected a multiple of " + BYTES_PER_PIECE + " bytes but got " + sequence.length);
+        }
+        this.sequence = sequence;
+        this.sequenceIndex = 0;
+    }
+
+    /**
+     * Records the first pieces of the sequence of the seed, {@link #BYTES_PER_PIECE} bytes per piece.
+     */
+    public byte[] record(long seed, int count) {
+        reset(seed);
+        byte[] recorded = new byte[count * BYTES_PER_PIECE];
+        for (int i = 0; i < recorded.length; i += BYTES_PER_PIECE) {
+            Piece piece = next();
+            recorded[i] = (byte) (lastShape << 3 | piece.getColor().ordinal());
+            recorded[i + 1] = (byte) piece.getOrientation();
+            recorded[i + 2] = (byte) piece.getPosition().getX();
+            recorded[i + 3] = (byte) (is3D ? piece.getPosition().getZ() : 0);
+        }
+        return recorded;
+    }
+
+    public Piece next() {
+        if (sequence != null) {
+            return nextRecorded();
+        }
+
+        int shape = random.nextInt(pieces.length);
+        Piece piece = nextPiece(shape);
+        piece.setColor(PieceGenerator.randomColor(random));
+        piece.setOrientation(random.nextInt(piece.getOrientationCount()));
+
+        TetrisVector position = piece.getPosition();
+        position.setX(random.nextInt(width - piece.getWidth() + 1));
+        position.setY(height - piece.getHeight());
+        if (is3D) {
+            position.setZ(random.nextInt(depth - ((Piece3D) piece).getDepth() + 1));
+        }
+        return piece;
+    }
+
+    private Piece nextRecorded() {
+        if (sequenceIndex == sequence.length) {
+            throw new IllegalStateException("All the " + sequence.length / BYTES_PER_PIECE + " recorded pieces were drawn");
+        }
+        int shapeAndColor = sequence[sequenceIndex];
+        Piece piece = nextPiece(shapeAndColor >>> 3);
+        piece.setColor(COLORS[shapeAndColor & 7]);
+        piece.setOrientation(sequence[sequenceIndex + 1]);
+
+        TetrisVector position = piece.getPosition();
+        position.setX(sequence[sequenceIndex + 2]);
+        position.setY(height - piece.getHeight());
+        if (is3D) {
+            position.setZ(sequence[sequenceIndex + 3]);
+        }
+        sequenceIndex += BYTES_PER_PIECE;
+        return piece;
+    }
+
+    private Piece nextPiece(int shape) {
+        lastShape = shape;
+        int slot = nextSlot[shape];
+        nextSlot[shape] = slot ^ 1;
+        return pieces[shape][slot];
+    }
+}
@@ -0,0 +1,62 @@
+package fr.polytech.pie.model;
+
+import java.util.Arrays;
+
+/**
+ * Reusable buffer of piece placements, each packed in an int as (orientation, x, y, z) with one byte per field.
+ */
+public final class Placements {
+    private int[] placements = new int[64];
+    private int size;
+
+    public static int pack(int orientation, int x, int y, int z) {
+        return orientation << 24 | x << 16 | y << 8 | z;
+    }
+
+    public static int orientation(int placement) {
+        return placement >>> 24;
+    }
+
+    public static int x(int placement) {
+        return placement >>> 16 & 0xFF;
+    }
+
+    public static int y(int placement) {
+        return placement >>> 8 & 0xFF;
+    }
+
+    public static int z(int placement) {
+        return placement & 0xFF;
+    }
+
+    /**
+     * Moves the piece to the placement, without allocating.
+     */
+    public static void apply(Piece piece, int placement) {
+        piece.setOrientation(orientation(placement));
+        piece.getPosition().setX(x(placement));
+        piece.getPosition().setY(y(placement));
+        if (piece.getPosition().getSize() > 2) {
+            piece.getPosition().setZ(z(placement));
+        }
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public void add(int orientation, int x, int y, int z) {
+        if (size == placements.length) {
+            placements = Arrays.copyOf(placements, size * 2);
+        }
+        placements[size++] = pack(orientation, x, y, z);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int get(int index) {
+        return placements[index];
+    }
+}
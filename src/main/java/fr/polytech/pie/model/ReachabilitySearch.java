@@ -0,0 +1,149 @@
+package fr.polytech.pie.model;
+
+import fr.polytech.pie.model.threeD.Piece3D;
+import fr.polytech.pie.model.twoD.Piece2D;
+
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+/**
+ * Breadth-first search over the (orientation, x, y[, z]) states of a piece, using the moves {@link Game} offers to the
+ * player: translations, {@link Piece2D#rotate2d} with its wall kicks and {@link Piece3D#rotate3D}.
+ * Every resting state, where moving down collides, is a placement. Unlike hard drops it finds tucks and spins, and never
+ * lists a placement the player could not reach.
+ * The scratch buffers are thread confined, so one instance can be shared by every AI worker.
+ */
+public final class ReachabilitySearch implements MoveGenerator {
+    private static final ThreadLocal<SearchBuffers> BUFFERS = ThreadLocal.withInitial(SearchBuffers::new);
+
+    private static final class SearchBuffers {
+        long[] visited = new long[0];
+        int[] queue = new int[0];
+    }
+
+    @Override
+    public void generate(Grid grid, Piece piece, Placements placements) {
+        search(grid, piece, placements);
+    }
+
+    /**
+     * Fills the buffer with the reachable resting placements of the piece.
+     *
+     * @return the number of states explored
+     */
+    public int search(Grid grid, Piece piece, Placements placements) {
+        placements.clear();
+
+        boolean is3D = piece.getPosition().getSize() > 2;
+        int width = grid.getWidth();
+        int height = grid.getHeight();
+        int depth = is3D ? grid.getDepth() : 1;
+        int stateCount = piece.getOrientationCount() * width * height * depth;
+
+        SearchBuffers buffers = BUFFERS.get();
+        int words = (stateCount + Long.SIZE - 1) / Long.SIZE;
+        if (buffers.visited.length < words) {
+            buffers.visited = new long[words];
+        } else {
+            Arrays.fill(buffers.visited, 0, words, 0L);
+        }
+        if (buffers.queue.length < stateCount) {
+            buffers.queue = new int[stateCount];
+        }
+        long[] visited = buffers.visited;
+        int[] queue = buffers.queue;
+
+        Piece current = piece.clone();
+        if (grid.checkCollision(current)) {
+            return 0;
+        }
+
+        Predicate<Piece> collisionChecker = grid::checkCollision;
+        int head = 0;
+        int tail = 0;
+
+        int start = pack(current, is3D);
+        markVisited(visited, start, width, height, depth);
+        queue[tail++] = start;
+
+        while (head < tail) {
+            int state = queue[head++];
+            TetrisVector position = current.getPosition();
+
+            // Down, or rest here
+            Placements.apply(current, state);
+            position.setY(position.getY() - 1);
+            if (grid.checkCollision(current)) {
+                placements.add(Placements.orientation(state), Placements.x(state), Placements.y(state), Placements.z(state));
+            } else {
+                tail = visit(current, is3D, visited, queue, tail, width, height, depth);
+            }
+
+            // Sideways
+            for (int direction = -1; direction <= 1; direction += 2) {
+                Placements.apply(current, state);
+                position.setX(position.getX() + direction);
+                if (!grid.checkCollision(current)) {
+                    tail = visit(current, is3D, visited, queue, tail, width, height, depth);
+                }
+
+                if (is3D) {
+                    Placements.apply(current, state);
+                    position.setZ(position.getZ() + direction);
+                    if (!grid.checkCollision(current)) {
+                        tail = visit(current, is3D, visited, queue, tail, width, height, depth);
+                    }
+                }
+            }
+
+            // Rotations, reverted by the pieces themselves when they collide
+            if (current instanceof Piece3D piece3D) {
+                for (RotationAxis axis : RotationAxis.values()) {
+                    for (int reverse = 0; reverse < 2; reverse++) {
+                        Placements.apply(current, state);
+                        piece3D.rotate3D(axis, collisionChecker, reverse == 1);
+                        if (piece3D.getOrientation() != Placements.orientation(state)) {
+                            tail = visit(current, is3D, visited, queue, tail, width, height, depth);
+                        }
+                    }
+                }
+            } else if (current instanceof Piece2D piece2D) {
+                Placements.apply(current, state);
+                piece2D.rotate2d(collisionChecker);
+                if (piece2D.getOrientation() != Placements.orientation(state) && !grid.checkCollision(current)) {
+                    tail = visit(current, is3D, visited, queue, tail, width, height, depth);
+                }
+            }
+        }
+
+        return head;
+    }
+
+    private static int visit(Piece piece, boolean is3D, long[] visited, int[] queue, int tail,
+                             int width, int height, int depth) {
+        int state = pack(piece, is3D);
+        if (markVisited(visited, state, width, height, depth)) {
+            queue[tail++] = state;
+        }
+        return tail;
+    }
+
+    /**
+     * @return whether the state had not been visited yet
+     */
+    private static boolean markVisited(long[] visited, int state, int width, int height, int depth) {
+        int index = ((Placements.orientation(state) * width + Placements.x(state)) * height + Placements.y(state))
+                * depth + Placements.z(state);
+        long bit = 1L << index;
+        if ((visited[index >>> 6] & bit) != 0) {
+            return false;
+        }
+        visited[index >>> 6] |= bit;
+        return true;
+    }
+
+    private static int pack(Piece piece, boolean is3D) {
+        TetrisVector position = piece.getPosition();
+        return Placements.pack(piece.getOrientation(), position.getX(), position.getY(), is3D ? position.getZ() : 0);
+    }
+}
@@ -0,0 +1,156 @@
+package fr.polytech.pie.model;
+
+import fr.polytech.pie.Consts;
+
+/**
+ * Headless game loop for the trainer and the benchmarks: spawns the pieces, lets the AI play them and clears the
+ * lines until the game is over, without timer, observer nor logging. The grid and the {@link PieceSource} are reused
+ * from game to game, so a simulator is not thread safe and each thread runs its own.
+ */
+public final class Simulator {
+    private static final long POINTS_PER_LINE = 100;
+
+    private final boolean is3D;
+    private final AiExecutor executor;
+    private final Grid emptyGrid;
+    private final Grid grid;
+    private final PieceSource pieceSource;
+    private Evaluator evaluator;
+    private Ai ai;
+    private int stallPieces = Integer.MAX_VALUE;
+    private double stallHeightRatio = 1;
+    private LatencyHistogram moveLatencies;
+    private MoveGenerator moveGenerator = MoveGenerator.HARD_DROP;
+
+    /**
+     * Simulator searching the moves on the calling thread.
+     */
+    public Simulator(boolean is3D) {
+        this(is3D, null);
+    }
+
+    /**
+     * @param executor threads splitting the search of each move, or {@code null} to search on the calling thread
+     */
+    public Simulator(boolean is3D, AiExecutor executor) {
+        this.is3D = is3D;
+        this.executor = executor;
+        this.emptyGrid = Grid.create(new TetrisVector(new int[]{Consts.GRID_WIDTH, Consts.GRID_HEIGHT, Consts.GRID_DEPTH}), is3D);
+        this.grid = emptyGrid.copy();
+        this.pieceSource = new PieceSource(grid, 0);
+    }
+
+    public boolean is3D() {
+        return is3D;
+    }
+
+    /**
+     * Ends the games in which no line was cleared for more than {@code pieces} pieces while the highest column is above
+     * {@code heightRatio} of the grid, as they are about to be lost.
+     */
+    public void setStallLimit(int pieces, double heightRatio) {
+        this.stallPieces = pieces;
+        this.stallHeightRatio = heightRatio;
+    }
+
+    /**
+     * Generator of the placements of the played pieces, {@link MoveGenerator#HARD_DROP} by default: the
+     * {@link MoveGenerator#REACHABLE reachability search} of the game finds tucks and spins but costs about a hundred
+     * times more per move, which would slow the trainer and the benchmarks down as much.
+     */
+    public void setMoveGenerator(MoveGenerator moveGenerator) {
+        this.moveGenerator = moveGenerator;
+        this.ai = null;
+    }
+
+    /**
+     * Histogram recording the duration of each AI move, or {@code null} not to time them.
+     */
+    public void setMoveLatencies(LatencyHistogram moveLatencies) {
+        this.moveLatencies = moveLatencies;
+    }
+
+    /**
+     * Plays a game until a piece cannot spawn, the game stalls or {@code maxPieces} pieces were placed.
+     *
+     * @param seed seed of the pieces, the same seed giving the same pieces
+     */
+    public Result play(Evaluator evaluator, long seed, int maxPieces) {
+        pieceSource.reset(seed);
+        return play(evaluator, maxPieces);
+    }
+
+    /**
+     * Plays a game on pieces {@linkplain #recordPieces recorded} beforehand, as {@link #play(Evaluator, long, int)}
+     * would on their seed.
+     *
+     * @param pieces recorded pieces, only read so that simulators of several threads can share them
+     */
+    public Result play(Evaluator evaluator, byte[] pieces, int maxPieces) {
+        pieceSource.replay(pieces);
+        return play(evaluator, maxPieces);
+    }
+
+    /**
+     * Records the pieces of the seed that a game of at most {@code maxPieces} pieces may draw, the next piece
+     * included.
+     */
+    public byte[] recordPieces(long seed, int maxPieces) {
+        return pieceSource.record(seed, maxPieces + 1);
+    }
+
+    private Result play(Evaluator evaluator, int maxPieces) {
+        Ai ai = getAi(evaluator);
+        grid.copyFrom(emptyGrid);
+
+        int linesCleared = 0;
+        int pieces = 0;
+        int piecesWithoutLines = 0;
+        boolean gameOver = false;
+
+        Piece nextPiece = pieceSource.next();
+        while (pieces < maxPieces) {
+            Piece piece = nextPiece;
+            nextPiece = pieceSource.next();
+            if (grid.checkCollision(piece)) {
+                gameOver = true;
+                break;
+            }
+
+            if (moveLatencies != null) {
+                long start = System.nanoTime();
+                ai.makeMove(piece, nextPiece);
+                moveLatencies.record(System.nanoTime() - start);
+            } else {
+                ai.makeMove(piece, nextPiece);
+            }
+            pieces++;
+
+            int lines = grid.clearFullLines();
+            linesCleared += lines;
+            piecesWithoutLines = lines > 0 ? 0 : piecesWithoutLines + 1;
+            if (piecesWithoutLines > stallPieces && grid.getMaxHeight() > grid.getHeight() * stallHeightRatio) {
+                break;
+            }
+        }
+
+        return new Result(linesCleared, pieces, linesCleared * POINTS_PER_LINE, gameOver);
+    }
+
+    private Ai getAi(Evaluator evaluator) {
+        if (ai == null || this.evaluator != evaluator) {
+            this.evaluator = evaluator;
+            this.ai = executor == null ? Ai.sequential(grid, evaluator) : new Ai(grid, evaluator, executor);
+            ai.setMoveGenerator(moveGenerator);
+        }
+        return ai;
+    }
+
+    /**
+     * Outcome of a game.
+     *
+     * @param gameOver whether the game ended because a piece could not spawn
+     */
+    public record Result(int linesCleared, int pieces, long score, boolean gameOver) {
+    }
+}
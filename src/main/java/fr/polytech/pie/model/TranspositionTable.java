@@ -0,0 +1,84 @@
+package fr.polytech.pie.model;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed size cache of scores keyed by {@link Grid#getHash()}, shared without locks by the AI workers.
+ * Each key maps to a single slot and a new entry always evicts the previous one. A slot stores the value next to
+ * {@code key ^ value}, so an entry torn by concurrent writers fails the key check and reads as a miss.
+ */
+public final class TranspositionTable {
+    private static final long EMPTY_CHECK = 0x5DEECE66DL;
+
+    private final AtomicLongArray entries;
+    private final int mask;
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * @param capacity number of slots, rounded up to a power of two
+     */
+    public TranspositionTable(int capacity) {
+        int slots = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.entries = new AtomicLongArray(2 * slots);
+        this.mask = slots - 1;
+    }
+
+    /**
+     * @return the score stored for the key, or {@link Double#NaN} if it is not in the table
+     */
+    public double get(long key) {
+        lookups.increment();
+        int slot = index(key);
+        long value = entries.getOpaque(slot + 1);
+        if ((entries.getOpaque(slot) ^ value ^ EMPTY_CHECK) != key) {
+            return Double.NaN;
+        }
+        hits.increment();
+        return Double.longBitsToDouble(value);
+    }
+
+    public void put(long key, double score) {
+        int slot = index(key);
+        long value = Double.doubleToRawLongBits(score);
+        entries.setOpaque(slot, key ^ value ^ EMPTY_CHECK);
+        entries.setOpaque(slot + 1, value);
+    }
+
+    private int index(long key) {
+        return ((int) (key ^ (key >>> 32)) & mask) << 1;
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    public long getLookups() {
+        return lookups.sum();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public double getHitRate() {
+        long total = lookups.sum();
+        return total == 0 ? 0 : (double) hits.sum() / total;
+    }
+
+    public void resetStatistics() {
+        lookups.reset();
+        hits.reset();
+    }
+
+    /**
+     * Empties the table, making it reusable with other weights.
+     */
+    public void clear() {
+        for (int i = 0; i < entries.length(); i++) {
+            entries.setOpaque(i, 0L);
+        }
+        resetStatistics();
+    }
+}
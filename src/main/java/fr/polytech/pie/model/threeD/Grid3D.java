@@ -3,25 +3,90 @@ package fr.polytech.pie.model.threeD;
 import fr.polytech.pie.model.*;
 
 import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Set;
 
 public class Grid3D extends Grid {
-    private final PieceColor[][][] grid;
+    /**
+     * Occupancy of each horizontal XZ plane as a packed bitset, bit {@code z * width + x} being the cell (x, z).
+     */
+    private final long[][] planes;
+    /**
+     * Colors of the cells of each plane, only meaningful where the matching bit of {@link #planes} is set.
+     */
+    private final PieceColor[][] colors;
     private final int[][] heightCache;
     private final int[][] holesCache;
+    private final int[] planeCounts;
+    private final int cellsPerPlane;
+    private int fullPlanes;
+    private int aggregateHeight;
+    private int bumpiness;
+    private int holes;
+    /**
+     * Masks of the cells of a plane: all of them, the ones on the first or last column (x), and the ones on the first
+     * or last row (z).
+     */
+    private final long[] cellMask;
+    private final long[] firstColumn;
+    private final long[] lastColumn;
+    private final long[] firstRow;
+    private final long[] lastRow;
+    private final int[] wellDepths;
+    private final long[] runningWells;
 
     public Grid3D(TetrisVector size) {
         super(size);
-        this.grid = new PieceColor[size.getZ()][size.getY()][size.getX()];
+        this.cellsPerPlane = size.getX() * size.getZ();
+        int words = (cellsPerPlane + Long.SIZE - 1) / Long.SIZE;
+
+        this.planes = new long[size.getY()][words];
+        this.colors = new PieceColor[size.getY()][cellsPerPlane];
         this.heightCache = new int[size.getX()][size.getZ()];
         this.holesCache = new int[size.getX()][size.getZ()];
+        this.planeCounts = new int[size.getY()];
+        this.cellMask = new long[words];
+        this.firstColumn = new long[words];
+        this.lastColumn = new long[words];
+        this.firstRow = new long[words];
+        this.lastRow = new long[words];
+        this.wellDepths = new int[cellsPerPlane];
+        this.runningWells = new long[words];
 
         for (int z = 0; z < size.getZ(); z++) {
-            for (int y = 0; y < size.getY(); y++) {
-                Arrays.fill(grid[z][y], PieceColor.Empty);
+            for (int x = 0; x < size.getX(); x++) {
+                int bit = bitIndex(x, z);
+                long mask = 1L << bit;
+                cellMask[bit >>> 6] |= mask;
+                if (x == 0) {
+                    firstColumn[bit >>> 6] |= mask;
+                }
+                if (x == size.getX() - 1) {
+                    lastColumn[bit >>> 6] |= mask;
+                }
+                if (z == 0) {
+                    firstRow[bit >>> 6] |= mask;
+                }
+                if (z == size.getZ() - 1) {
+                    lastRow[bit >>> 6] |= mask;
+                }
             }
         }
+
+        for (int y = 0; y < size.getY(); y++) {
+            Arrays.fill(colors[y], PieceColor.Empty);
+        }
+    }
+
+    private int bitIndex(int x, int z) {
+        return z * size.getX() + x;
+    }
+
+    private int cellIndex(int x, int y, int z) {
+        return y * cellsPerPlane + bitIndex(x, z);
+    }
+
+    private boolean isSet(int x, int y, int z) {
+        int bit = bitIndex(x, z);
+        return (planes[y][bit >>> 6] & (1L << bit)) != 0;
     }
 
     @Override
@@ -29,16 +94,31 @@ public class Grid3D extends Grid {
         if (isOutOfBounds(position)) {
             return PieceColor.Empty;
         }
-        return grid[position.getZ()][position.getY()][position.getX()];
+        if (!isSet(position.getX(), position.getY(), position.getZ())) {
+            return PieceColor.Empty;
+        }
+        return colors[position.getY()][bitIndex(position.getX(), position.getZ())];
     }
 
     public void setValue(TetrisVector position, PieceColor value) {
         if (!isOutOfBounds(position)) {
-            PieceColor oldValue = grid[position.getZ()][position.getY()][position.getX()];
-            grid[position.getZ()][position.getY()][position.getX()] = value;
+            int x = position.getX();
+            int z = position.getZ();
+            int bit = bitIndex(x, z);
+            long[] plane = planes[position.getY()];
+            long oldWord = plane[bit >>> 6];
+
+            if (value == PieceColor.Empty) {
+                plane[bit >>> 6] &= ~(1L << bit);
+            } else {
+                plane[bit >>> 6] |= 1L << bit;
+                colors[position.getY()][bit] = value;
+            }
 
-            if ((oldValue == PieceColor.Empty && value != PieceColor.Empty) || (oldValue != PieceColor.Empty && value == PieceColor.Empty)) {
-                updateCaches(position.getX(), position.getZ());
+            if (plane[bit >>> 6] != oldWord) {
+                hash ^= zobristKey(cellIndex(x, position.getY(), z));
+                changePlaneCount(position.getY(), value == PieceColor.Empty ? -1 : 1);
+                updateCaches(x, z);
             }
         }
     }
@@ -49,20 +129,24 @@ public class Grid3D extends Grid {
             throw new IllegalArgumentException("Expected CurrentPiece3D but got " + piece.getClass().getName());
         }
 
-        PieceColor[][][] voxelGrid = piece3D.getPiece3d();
         TetrisVector position = piece.getPosition();
-
-        for (int i = 0; i < piece.getWidth(); i++) {
-            for (int j = 0; j < piece.getHeight(); j++) {
-                for (int k = 0; k < piece3D.getDepth(); k++) {
-                    if (voxelGrid[k][j][i] != PieceColor.Empty) {
-                        TetrisVector pos = new TetrisVector(new int[]{i, j, k});
-                        pos.add(position);
-                        setValue(pos, piece.getColor());
-                    }
+        for (int voxel : piece3D.getVoxels()) {
+            int x = position.getX() + (voxel & 0xFF);
+            int y = position.getY() + (voxel >>> 8 & 0xFF);
+            int z = position.getZ() + (voxel >>> 16);
+
+            if (isInBounds(x, y, z)) {
+                int bit = bitIndex(x, z);
+                if (!isSet(x, y, z)) {
+                    hash ^= zobristKey(cellIndex(x, y, z));
+                    changePlaneCount(y, 1);
                 }
+                planes[y][bit >>> 6] |= 1L << bit;
+                colors[y][bit] = piece.getColor();
             }
         }
+
+        updatePieceCaches(piece3D);
     }
 
     @Override
@@ -71,17 +155,23 @@ public class Grid3D extends Grid {
             throw new IllegalArgumentException("Expected CurrentPiece3D but got " + piece.getClass().getName());
         }
 
-        for (int i = 0; i < piece.getWidth(); i++) {
-            for (int j = 0; j < piece.getHeight(); j++) {
-                for (int k = 0; k < piece3D.getDepth(); k++) {
-                    if (piece3D.getPiece3d()[k][j][i] != PieceColor.Empty) {
-                        var pos = new TetrisVector(new int[]{i, j, k});
-                        pos.add(piece3D.getPosition());
-                        setValue(pos, PieceColor.Empty);
-                    }
+        TetrisVector position = piece.getPosition();
+        for (int voxel : piece3D.getVoxels()) {
+            int x = position.getX() + (voxel & 0xFF);
+            int y = position.getY() + (voxel >>> 8 & 0xFF);
+            int z = position.getZ() + (voxel >>> 16);
+
+            if (isInBounds(x, y, z)) {
+                int bit = bitIndex(x, z);
+                if (isSet(x, y, z)) {
+                    hash ^= zobristKey(cellIndex(x, y, z));
+                    changePlaneCount(y, -1);
                 }
+                planes[y][bit >>> 6] &= ~(1L << bit);
             }
         }
+
+        updatePieceCaches(piece3D);
     }
 
     @Override
@@ -90,75 +180,68 @@ public class Grid3D extends Grid {
             throw new IllegalArgumentException("Expected CurrentPiece3D but got " + piece.getClass().getName());
         }
 
-        PieceColor[][][] voxelGrid = piece3D.getPiece3d();
-
-        for (int i = 0; i < piece3D.getWidth(); i++) {
-            for (int j = 0; j < piece3D.getHeight(); j++) {
-                for (int k = 0; k < piece3D.getDepth(); k++) {
-                    if (voxelGrid[k][j][i] != PieceColor.Empty) {
-                        var pos = new TetrisVector(new int[]{i, j, k});
-                        pos.add(piece3D.getPosition());
-
-                        if (isOutOfBounds(pos)) {
-                            return true;
-                        }
+        TetrisVector position = piece.getPosition();
+        for (int voxel : piece3D.getVoxels()) {
+            int x = position.getX() + (voxel & 0xFF);
+            int y = position.getY() + (voxel >>> 8 & 0xFF);
+            int z = position.getZ() + (voxel >>> 16);
 
-                        if (getValue(pos) != PieceColor.Empty) {
-                            return true;
-                        }
-                    }
-                }
+            if (!isInBounds(x, y, z) || isSet(x, y, z)) {
+                return true;
             }
         }
         return false;
     }
 
+    private boolean isInBounds(int x, int y, int z) {
+        return x >= 0 && x < size.getX() && y >= 0 && y < size.getY() && z >= 0 && z < size.getZ();
+    }
+
+    private void changePlaneCount(int y, int delta) {
+        if (planeCounts[y] == cellsPerPlane) {
+            fullPlanes--;
+        }
+        planeCounts[y] += delta;
+        if (planeCounts[y] == cellsPerPlane) {
+            fullPlanes++;
+        }
+    }
+
     @Override
     public int clearFullLines(boolean dry) {
-        int linesCleared = 0;
+        if (dry || fullPlanes == 0) {
+            return fullPlanes;
+        }
 
-        // Check for full horizontal planes (XZ planes)
+        // Shift the plane references down, recycling the cleared planes at the top
+        int linesCleared = fullPlanes;
+        int target = 0;
         for (int y = 0; y < size.getY(); y++) {
-            boolean fullPlane = true;
-
-            // Check if the plane is full
-            for (int x = 0; x < size.getX() && fullPlane; x++) {
-                for (int z = 0; z < size.getZ(); z++) {
-                    if (grid[z][y][x] == PieceColor.Empty) {
-                        fullPlane = false;
-                        break;
-                    }
-                }
+            if (planeCounts[y] == cellsPerPlane) {
+                continue;
             }
 
-            if (fullPlane) {
-                linesCleared++;
-
-                if (!dry) {
-                    // Shift all planes above down
-                    for (int i = y; i < size.getY() - 1; i++) {
-                        for (int x = 0; x < size.getX(); x++) {
-                            for (int z = 0; z < size.getZ(); z++) {
-                                grid[z][i][x] = grid[z][i + 1][x];
-                            }
-                        }
-                    }
+            if (target != y) {
+                planeCounts[target] = planeCounts[y];
 
-                    // Clear the top plane
-                    for (int x = 0; x < size.getX(); x++) {
-                        for (int z = 0; z < size.getZ(); z++) {
-                            grid[z][size.getY() - 1][x] = PieceColor.Empty;
-                        }
-                    }
+                long[] plane = planes[target];
+                planes[target] = planes[y];
+                planes[y] = plane;
 
-                    y--; // Check the same line again after shifting
-                }
+                PieceColor[] colorPlane = colors[target];
+                colors[target] = colors[y];
+                colors[y] = colorPlane;
             }
+            target++;
         }
 
-        if (!dry && linesCleared > 0) {
-            recalculateAllCaches();
+        for (int y = target; y < size.getY(); y++) {
+            Arrays.fill(planes[y], 0L);
+            planeCounts[y] = 0;
         }
+        fullPlanes = 0;
+        recalculateAllCaches();
+        recalculateHash();
 
         return linesCleared;
     }
@@ -171,53 +254,246 @@ public class Grid3D extends Grid {
     @Override
     public Grid copy() {
         Grid3D copy = new Grid3D(new TetrisVector(size));
+        copy.copyFrom(this);
+        return copy;
+    }
 
-        for (int z = 0; z < size.getZ(); z++) {
-            for (int y = 0; y < size.getY(); y++) {
-                System.arraycopy(grid[z][y], 0, copy.grid[z][y], 0, size.getX());
-            }
+    @Override
+    public void copyFrom(Grid other) {
+        if (!(other instanceof Grid3D grid3D)) {
+            throw new IllegalArgumentException("Expected Grid3D but got " + other.getClass().getName());
+        }
+
+        for (int y = 0; y < size.getY(); y++) {
+            System.arraycopy(grid3D.planes[y], 0, planes[y], 0, planes[y].length);
+            System.arraycopy(grid3D.colors[y], 0, colors[y], 0, colors[y].length);
         }
 
-        // Copy the height cache
         for (int x = 0; x < size.getX(); x++) {
-            System.arraycopy(heightCache[x], 0, copy.heightCache[x], 0, size.getZ());
-            System.arraycopy(holesCache[x], 0, copy.holesCache[x], 0, size.getZ());
+            System.arraycopy(grid3D.heightCache[x], 0, heightCache[x], 0, size.getZ());
+            System.arraycopy(grid3D.holesCache[x], 0, holesCache[x], 0, size.getZ());
         }
 
-        return copy;
+        System.arraycopy(grid3D.planeCounts, 0, planeCounts, 0, size.getY());
+        hash = grid3D.hash;
+        fullPlanes = grid3D.fullPlanes;
+        aggregateHeight = grid3D.aggregateHeight;
+        bumpiness = grid3D.bumpiness;
+        holes = grid3D.holes;
     }
 
     @Override
     public int getHoles() {
-        int totalHoles = 0;
+        return holes;
+    }
+
+    @Override
+    public int getAggregateHeight() {
+        return aggregateHeight;
+    }
+
+    @Override
+    public int getBumpiness() {
+        return bumpiness;
+    }
+
+    @Override
+    public int getRowFillCount(int y) {
+        return planeCounts[y];
+    }
+
+    private void recalculateAllCaches() {
         for (int x = 0; x < size.getX(); x++) {
             for (int z = 0; z < size.getZ(); z++) {
-                totalHoles += holesCache[x][z];
+                updateCaches(x, z);
             }
         }
-        return totalHoles;
     }
 
-    private void recalculateAllCaches() {
-        for (int x = 0; x < size.getX(); x++) {
-            for (int z = 0; z < size.getZ(); z++) {
+    private void recalculateHash() {
+        hash = 0;
+        for (int y = 0; y < size.getY(); y++) {
+            for (int word = 0; word < planes[y].length; word++) {
+                long bits = planes[y][word];
+                while (bits != 0) {
+                    hash ^= zobristKey(y * cellsPerPlane + (word << 6) + Long.numberOfTrailingZeros(bits));
+                    bits &= bits - 1;
+                }
+            }
+        }
+    }
+
+    private void updatePieceCaches(Piece3D piece) {
+        TetrisVector position = piece.getPosition();
+        int maxX = Math.min(size.getX(), position.getX() + piece.getWidth());
+        int maxZ = Math.min(size.getZ(), position.getZ() + piece.getDepth());
+
+        for (int x = Math.max(0, position.getX()); x < maxX; x++) {
+            for (int z = Math.max(0, position.getZ()); z < maxZ; z++) {
                 updateCaches(x, z);
             }
         }
     }
 
+    @Override
+    protected boolean isLineFull(int y) {
+        return planeCounts[y] == cellsPerPlane;
+    }
+
+    @Override
+    protected void removeLine(int y) {
+        int top = size.getY() - 1;
+        long[] plane = planes[y];
+        PieceColor[] colorPlane = colors[y];
+        if (isLineFull(y)) {
+            fullPlanes--;
+        }
+
+        System.arraycopy(planes, y + 1, planes, y, top - y);
+        System.arraycopy(planeCounts, y + 1, planeCounts, y, top - y);
+        System.arraycopy(colors, y + 1, colors, y, top - y);
+        Arrays.fill(plane, 0L);
+        planes[top] = plane;
+        planeCounts[top] = 0;
+        colors[top] = colorPlane;
+    }
+
+    @Override
+    protected void insertFullLine(int y) {
+        int top = size.getY() - 1;
+        long[] plane = planes[top];
+        PieceColor[] colorPlane = colors[top];
+
+        System.arraycopy(planes, y, planes, y + 1, top - y);
+        System.arraycopy(planeCounts, y, planeCounts, y + 1, top - y);
+        System.arraycopy(colors, y, colors, y + 1, top - y);
+
+        System.arraycopy(cellMask, 0, plane, 0, plane.length);
+        planes[y] = plane;
+        planeCounts[y] = cellsPerPlane;
+        colors[y] = colorPlane;
+        fullPlanes++;
+    }
+
+    @Override
+    protected void recalculateFeatures() {
+        recalculateAllCaches();
+        recalculateHash();
+    }
+
+    @Override
+    protected void computeLineFeatures(int mask, int[] values) {
+        int width = size.getX();
+        boolean cumulative = (mask & Feature.CUMULATIVE_WELLS.bit()) != 0;
+
+        int rowTransitions = 0;
+        int columnTransitions = 0;
+        int wells = 0;
+        int cumulativeWells = 0;
+
+        // From the top, so that well depths grow downwards
+        for (int y = size.getY() - 1; y >= 0; y--) {
+            long[] plane = planes[y];
+            long[] below = y > 0 ? planes[y - 1] : cellMask;
+
+            for (int word = 0; word < plane.length; word++) {
+                long cells = plane[word];
+                long right = shiftedDown(plane, word, 1);
+                long left = shiftedUp(plane, word, 1);
+                long back = shiftedDown(plane, word, width);
+                long front = shiftedUp(plane, word, width);
+
+                rowTransitions += Long.bitCount((cells ^ right) & cellMask[word] & ~lastColumn[word])
+                        + Long.bitCount(~cells & firstColumn[word]) + Long.bitCount(~cells & lastColumn[word])
+                        + Long.bitCount((cells ^ back) & cellMask[word] & ~lastRow[word])
+                        + Long.bitCount(~cells & firstRow[word]) + Long.bitCount(~cells & lastRow[word]);
+                columnTransitions += Long.bitCount(cells ^ below[word]);
+
+                long well = ~cells & cellMask[word]
+                        & (left | firstColumn[word]) & (right | lastColumn[word])
+                        & (front | firstRow[word]) & (back | lastRow[word]);
+                wells += Long.bitCount(well);
+
+                if (cumulative) {
+                    for (long ended = runningWells[word] & ~well; ended != 0; ended &= ended - 1) {
+                        wellDepths[(word << 6) + Long.numberOfTrailingZeros(ended)] = 0;
+                    }
+                    for (long bits = well; bits != 0; bits &= bits - 1) {
+                        cumulativeWells += ++wellDepths[(word << 6) + Long.numberOfTrailingZeros(bits)];
+                    }
+                    runningWells[word] = well;
+                }
+            }
+        }
+
+        for (int word = 0; word < runningWells.length; word++) {
+            for (long bits = runningWells[word]; bits != 0; bits &= bits - 1) {
+                wellDepths[(word << 6) + Long.numberOfTrailingZeros(bits)] = 0;
+            }
+            runningWells[word] = 0;
+        }
+
+        values[Feature.ROW_TRANSITIONS.ordinal()] = rowTransitions;
+        values[Feature.COLUMN_TRANSITIONS.ordinal()] = columnTransitions;
+        values[Feature.WELLS.ordinal()] = wells;
+        values[Feature.CUMULATIVE_WELLS.ordinal()] = cumulativeWells;
+    }
+
+    /**
+     * Word of the plane bitset shifted right by {@code shift} bits, bit {@code i} becoming the cell {@code i + shift}.
+     */
+    private static long shiftedDown(long[] plane, int word, int shift) {
+        int source = word + (shift >>> 6);
+        int bits = shift & 63;
+        long value = source < plane.length ? plane[source] >>> bits : 0;
+        if (bits != 0 && source + 1 < plane.length) {
+            value |= plane[source + 1] << (Long.SIZE - bits);
+        }
+        return value;
+    }
+
+    /**
+     * Word of the plane bitset shifted left by {@code shift} bits, bit {@code i} becoming the cell {@code i - shift}.
+     */
+    private static long shiftedUp(long[] plane, int word, int shift) {
+        int source = word - (shift >>> 6);
+        int bits = shift & 63;
+        long value = source >= 0 ? plane[source] << bits : 0;
+        if (bits != 0 && source - 1 >= 0) {
+            value |= plane[source - 1] >>> (Long.SIZE - bits);
+        }
+        return value;
+    }
+
+    @Override
+    protected int countCellsInFullLines(Piece piece) {
+        int py = piece.getPosition().getY();
+        int cells = 0;
+
+        for (int voxel : ((Piece3D) piece).getVoxels()) {
+            int y = py + (voxel >>> 8 & 0xFF);
+            if (y >= 0 && y < size.getY() && isLineFull(y)) {
+                cells++;
+            }
+        }
+        return cells;
+    }
+
     public int getHeightOfColumn3D(int x, int z) {
         return heightCache[x][z];
     }
 
     private void updateCaches(int x, int z) {
+        int bit = bitIndex(x, z);
+        int word = bit >>> 6;
+        long mask = 1L << bit;
         int height = 0;
         int holes = 0;
         boolean foundBlock = false;
         boolean inHole = false;
 
         for (int y = this.size.getY() - 1; y >= 0; y--) {
-            if (grid[z][y][x] != PieceColor.Empty) {
+            if ((planes[y][word] & mask) != 0) {
                 if (!foundBlock) {
                     height = y + 1;
                 }
@@ -231,58 +507,70 @@ public class Grid3D extends Grid {
             }
         }
 
-        heightCache[x][z] = height;
+        int oldHeight = heightCache[x][z];
+        if (height != oldHeight) {
+            bumpiness += neighbourDifference(x, z, height) - neighbourDifference(x, z, oldHeight);
+            aggregateHeight += height - oldHeight;
+            heightCache[x][z] = height;
+        }
+
+        this.holes += holes - holesCache[x][z];
         holesCache[x][z] = holes;
     }
 
-    @Override
-    public Set<Piece> getPiecesPossibilities(Piece currentPiece) {
-        if (!(currentPiece instanceof Piece3D piece3D)) {
-            throw new IllegalArgumentException("Ai2D can only handle CurrentPiece2D instances");
+    /**
+     * Sum of the height differences between the column (x, z), at the given height, and its four neighbours.
+     */
+    private int neighbourDifference(int x, int z, int height) {
+        int difference = 0;
+        if (x > 0) {
+            difference += Math.abs(height - heightCache[x - 1][z]);
         }
-
-        Set<Piece> possibilities = new HashSet<>();
-
-        // Generate rotations
-        Piece3D workingPiece = piece3D.clone();
-        for (var axe : RotationAxis.values()) {
-            for (int i = 0; i < 4; i++) {
-                workingPiece.rotate3D(axe, _ -> false, false);
-                workingPiece.getPosition().setY(getHeight() - workingPiece.getHeight());
-                possibilities.add(workingPiece.clone());
-            }
+        if (x < size.getX() - 1) {
+            difference += Math.abs(height - heightCache[x + 1][z]);
         }
-
-        // Generate translations
-        Set<Piece> newTranslations = new HashSet<>();
-        for (var piece : possibilities) {
-            for (int x = 0; x < size.getX(); x++) {
-                for (int z = 0; z < size.getZ(); z++) {
-                    Piece3D translatedPiece = ((Piece3D) piece).clone();
-                    translatedPiece.getPosition().setX(x);
-                    translatedPiece.getPosition().setZ(z);
-                    if (!checkCollision(translatedPiece)) {
-                        newTranslations.add(translatedPiece);
-                    }
-                }
-            }
+        if (z > 0) {
+            difference += Math.abs(height - heightCache[x][z - 1]);
         }
-        possibilities = newTranslations;
-
-        Set<Piece> finalPossibilities = new HashSet<>();
-        for (var piece : possibilities) {
-            while (!checkCollision(piece)) {
-                piece.getPosition().setY(piece.getPosition().getY() - 1);
-            }
+        if (z < size.getZ() - 1) {
+            difference += Math.abs(height - heightCache[x][z + 1]);
+        }
+        return difference;
+    }
 
-            piece.getPosition().setY(piece.getPosition().getY() + 1);
+    @Override
+    public void getPlacements(Piece piece, Placements placements) {
+        if (!(piece instanceof Piece3D piece3D)) {
+            throw new IllegalArgumentException("Grid3D can only place Piece3D instances");
+        }
 
+        placements.clear();
+
+        RotationTable3D rotations = piece3D.getRotations();
+        for (int orientation = 0; orientation < rotations.getOrientationCount(); orientation++) {
+            int width = rotations.getWidth(orientation);
+            int height = rotations.getHeight(orientation);
+            int depth = rotations.getDepth(orientation);
+            int[] bottom = rotations.getBottomProfile(orientation);
+
+            for (int x = 0; x <= size.getX() - width; x++) {
+                for (int z = 0; z <= size.getZ() - depth; z++) {
+                    // The piece rests on the column that stops it first
+                    int y = 0;
+                    for (int k = 0; k < depth; k++) {
+                        for (int i = 0; i < width; i++) {
+                            int columnBottom = bottom[k * width + i];
+                            if (columnBottom < height) {
+                                y = Math.max(y, heightCache[x + i][z + k] - columnBottom);
+                            }
+                        }
+                    }
 
-            if (!checkCollision(piece)) {
-                finalPossibilities.add(piece);
+                    if (y + height <= size.getY()) {
+                        placements.add(orientation, x, y, z);
+                    }
+                }
             }
         }
-
-        return finalPossibilities;
     }
 }
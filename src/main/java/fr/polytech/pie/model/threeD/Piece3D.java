@@ -4,35 +4,65 @@ import fr.polytech.pie.model.Piece;
 import fr.polytech.pie.model.PieceColor;
 import fr.polytech.pie.model.TetrisVector;
 import fr.polytech.pie.model.RotationAxis;
-import org.joml.Matrix3f;
-import org.joml.Vector3f;
 
 import java.util.function.Predicate;
 
 public class Piece3D extends Piece {
+    private final RotationTable3D rotations;
+    private int orientation;
     private PieceColor[][][] pieceColor;
-    private int z;
 
-    public Piece3D(boolean[][][] piece, TetrisVector position){
+    public Piece3D(boolean[][][] piece, TetrisVector position) {
+        this(RotationTable3D.of(piece), 0, position);
+    }
+
+    public Piece3D(RotationTable3D rotations, int orientation, TetrisVector position) {
         super(position);
-        this.pieceColor = new PieceColor[piece.length][piece[0].length][piece[0][0].length];
-        for (int i = 0; i < piece.length; i++) {
-            for (int j = 0; j < piece[i].length; j++) {
-                for (int k = 0; k < piece[i][j].length; k++) {
-                    if (piece[i][j][k]) {
-                        this.pieceColor[i][j][k] = color;
-                    } else {
-                        this.pieceColor[i][j][k] = PieceColor.Empty;
-                    }
-                }
-            }
-        }
+        this.rotations = rotations;
+        this.orientation = orientation;
+        this.pieceColor = rotations.getCells(orientation, color);
     }
 
+    /**
+     * Cells of the piece, indexed {@code [z][y][x]}. The array is shared between pieces and must not be modified.
+     */
     public PieceColor[][][] getPiece3d() {
         return pieceColor;
     }
 
+    /**
+     * Occupied cells of the piece, each packed as {@code x | y << 8 | z << 16} relative to the piece position.
+     * The array is shared between pieces and must not be modified.
+     */
+    public int[] getVoxels() {
+        return rotations.getVoxels(orientation);
+    }
+
+    @Override
+    public int getCellCount() {
+        return getVoxels().length;
+    }
+
+    public RotationTable3D getRotations() {
+        return rotations;
+    }
+
+    @Override
+    public int getOrientation() {
+        return orientation;
+    }
+
+    @Override
+    public void setOrientation(int orientation) {
+        this.orientation = orientation;
+        this.pieceColor = rotations.getCells(orientation, color);
+    }
+
+    @Override
+    public int getOrientationCount() {
+        return rotations.getOrientationCount();
+    }
+
     public int getDepth() {
         return pieceColor.length;
     }
@@ -48,147 +78,17 @@ public class Piece3D extends Piece {
     }
 
     public void rotate3D(RotationAxis axis, Predicate<Piece> collisionChecker, boolean reverse) {
-        Piece3D original = clone();
-
-        float angle = reverse ? (float) -Math.PI / 2 : (float) Math.PI / 2;
-        Matrix3f rotationMatrix = new Matrix3f();
-        switch (axis) {
-            case X -> rotationMatrix.rotateX(angle);
-            case Y -> rotationMatrix.rotateY(angle);
-            case Z -> rotationMatrix.rotateZ(angle);
-        }
+        int original = orientation;
 
-        applyRotation(rotationMatrix);
+        setOrientation(rotations.rotate(orientation, axis, reverse));
 
         if (collisionChecker.test(this)) {
-            pieceColor = original.getPiece3d();
-        }
-    }
-
-    private void applyRotation(Matrix3f rotationMatrix) {
-        int depth = getDepth();
-        int height = getHeight();
-        int width = getWidth();
-
-        Vector3f center = calculateCenter(depth, height, width);
-        
-        BoundingBox bounds = calculateRotatedBounds(rotationMatrix, center, depth, height, width);
-        
-        pieceColor = createRotatedPiece(rotationMatrix, center, bounds, depth, height, width);
-    }
-    
-    private Vector3f calculateCenter(int depth, int height, int width) {
-        return new Vector3f(
-            (depth - 1) / 2.0f,
-            (height - 1) / 2.0f,
-            (width - 1) / 2.0f
-        );
-    }
-    
-    private BoundingBox calculateRotatedBounds(Matrix3f rotationMatrix, Vector3f center, 
-                                              int depth, int height, int width) {
-        BoundingBox bounds = new BoundingBox();
-        
-        for (int d = 0; d < depth; d++) {
-            for (int h = 0; h < height; h++) {
-                for (int w = 0; w < width; w++) {
-                    if (pieceColor[d][h][w] != PieceColor.Empty) {
-                        Vector3f origCoords = new Vector3f(
-                            d - center.x, 
-                            h - center.y, 
-                            w - center.z
-                        );
-                        
-                        Vector3f rotatedCoords = new Vector3f();
-                        rotationMatrix.transform(origCoords, rotatedCoords);
-                        
-                        bounds.update(rotatedCoords);
-                    }
-                }
-            }
-        }
-        
-        return bounds;
-    }
-    
-    private PieceColor[][][] createRotatedPiece(Matrix3f rotationMatrix, Vector3f center,
-                                                BoundingBox bounds, int depth, int height, int width) {
-        int newDepth = (int) Math.ceil(bounds.maxX - bounds.minX + 1);
-        int newHeight = (int) Math.ceil(bounds.maxY - bounds.minY + 1);
-        int newWidth = (int) Math.ceil(bounds.maxZ - bounds.minZ + 1);
-        
-        PieceColor[][][] rotated = new PieceColor[newDepth][newHeight][newWidth];
-        for (int d = 0; d < newDepth; d++) {
-            for (int h = 0; h < newHeight; h++) {
-                for (int w = 0; w < newWidth; w++) {
-                    rotated[d][h][w] = PieceColor.Empty;
-                }
-            }
-        }
-        
-        for (int d = 0; d < depth; d++) {
-            for (int h = 0; h < height; h++) {
-                for (int w = 0; w < width; w++) {
-                    if (pieceColor[d][h][w] != PieceColor.Empty) {
-                        Vector3f origCoords = new Vector3f(
-                            d - center.x, 
-                            h - center.y, 
-                            w - center.z
-                        );
-                        
-                        Vector3f rotatedCoords = new Vector3f();
-                        rotationMatrix.transform(origCoords, rotatedCoords);
-                        
-                        int newD = Math.round(rotatedCoords.x - bounds.minX);
-                        int newH = Math.round(rotatedCoords.y - bounds.minY);
-                        int newW = Math.round(rotatedCoords.z - bounds.minZ);
-                        
-                        if (isValidIndex(newD, newH, newW, newDepth, newHeight, newWidth)) {
-                            rotated[newD][newH][newW] = pieceColor[d][h][w];
-                        }
-                    }
-                }
-            }
-        }
-        
-        return rotated;
-    }
-    
-    private boolean isValidIndex(int d, int h, int w, int depth, int height, int width) {
-        return d >= 0 && d < depth && h >= 0 && h < height && w >= 0 && w < width;
-    }
-    
-    private static class BoundingBox {
-        float minX = Float.MAX_VALUE;
-        float minY = Float.MAX_VALUE;
-        float minZ = Float.MAX_VALUE;
-        float maxX = 0;
-        float maxY = 0;
-        float maxZ = 0;
-        
-        void update(Vector3f coords) {
-            minX = Math.min(minX, coords.x);
-            minY = Math.min(minY, coords.y);
-            minZ = Math.min(minZ, coords.z);
-            maxX = Math.max(maxX, coords.x);
-            maxY = Math.max(maxY, coords.y);
-            maxZ = Math.max(maxZ, coords.z);
+            setOrientation(original);
         }
     }
 
     @Override
     public Piece3D clone() {
-        Piece3D clone = (Piece3D) super.clone();
-
-        clone.pieceColor = new PieceColor[pieceColor.length][][];
-        for (int i = 0; i < pieceColor.length; i++) {
-            clone.pieceColor[i] = new PieceColor[pieceColor[i].length][];
-            for (int j = 0; j < pieceColor[i].length; j++) {
-                clone.pieceColor[i][j] = pieceColor[i][j].clone();
-            }
-        }
-        clone.z = this.z;
-        clone.position = new TetrisVector(position);
-        return clone;
+        return (Piece3D) super.clone();
     }
 }
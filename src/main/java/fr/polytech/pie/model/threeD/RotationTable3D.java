@@ -0,0 +1,229 @@
+package fr.polytech.pie.model.threeD;
+
+import fr.polytech.pie.model.PieceColor;
+import fr.polytech.pie.model.RotationAxis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Precomputed distinct orientations of a 3D shape under the 24 quarter-turn cube rotations, with the transitions
+ * between them, so that rotating a {@link Piece3D} is an index lookup.
+ * Cells are indexed {@code [depth][height][width]} like {@link Piece3D#getPiece3d()}.
+ */
+public final class RotationTable3D {
+    private static final Map<String, RotationTable3D> TABLES = new ConcurrentHashMap<>();
+
+    private final boolean[][][][] orientations;
+    private final int[][] voxels;
+    private final int[][] bottomProfiles;
+    /**
+     * {@code transitions[orientation][axis * 2 + (reverse ? 1 : 0)]} is the orientation reached by the rotation.
+     */
+    private final int[][] transitions;
+    private final PieceColor[][][][][] coloredCells;
+
+    private RotationTable3D(boolean[][][] shape) {
+        List<boolean[][][]> found = new ArrayList<>();
+        List<int[]> foundTransitions = new ArrayList<>();
+        found.add(normalize(shape));
+
+        // Breadth-first closure of the shape under the six quarter turns
+        for (int current = 0; current < found.size(); current++) {
+            int[] next = new int[RotationAxis.values().length * 2];
+            for (RotationAxis axis : RotationAxis.values()) {
+                for (int reverse = 0; reverse < 2; reverse++) {
+                    boolean[][][] rotated = rotate(found.get(current), axis, reverse == 1);
+                    int index = indexOf(found, rotated);
+                    if (index < 0) {
+                        index = found.size();
+                        found.add(rotated);
+                    }
+                    next[axis.ordinal() * 2 + reverse] = index;
+                }
+            }
+            foundTransitions.add(next);
+        }
+
+        this.orientations = found.toArray(new boolean[0][][][]);
+        this.transitions = foundTransitions.toArray(new int[0][]);
+        this.voxels = new int[orientations.length][];
+        this.bottomProfiles = new int[orientations.length][];
+        for (int i = 0; i < orientations.length; i++) {
+            voxels[i] = packVoxels(orientations[i]);
+            bottomProfiles[i] = bottomProfile(orientations[i]);
+        }
+        this.coloredCells = new PieceColor[orientations.length][PieceColor.values().length][][][];
+    }
+
+    /**
+     * Returns the table of the given shape, computing it on first use.
+     */
+    public static RotationTable3D of(boolean[][][] shape) {
+        return TABLES.computeIfAbsent(key(normalize(shape)), _ -> new RotationTable3D(shape));
+    }
+
+    public int getOrientationCount() {
+        return orientations.length;
+    }
+
+    public int rotate(int orientation, RotationAxis axis, boolean reverse) {
+        return transitions[orientation][axis.ordinal() * 2 + (reverse ? 1 : 0)];
+    }
+
+    /**
+     * Occupied cells of the orientation, packed as {@code x | y << 8 | z << 16}.
+     */
+    public int[] getVoxels(int orientation) {
+        return voxels[orientation];
+    }
+
+    /**
+     * Lowest occupied layer of each vertical column of the orientation, indexed {@code z * width + x}, or the height
+     * of the orientation when the column is empty.
+     */
+    public int[] getBottomProfile(int orientation) {
+        return bottomProfiles[orientation];
+    }
+
+    public int getWidth(int orientation) {
+        return orientations[orientation][0][0].length;
+    }
+
+    public int getHeight(int orientation) {
+        return orientations[orientation][0].length;
+    }
+
+    public int getDepth(int orientation) {
+        return orientations[orientation].length;
+    }
+
+    /**
+     * Cells of the orientation filled with the given color. The returned array is shared and must not be modified.
+     */
+    public PieceColor[][][] getCells(int orientation, PieceColor color) {
+        PieceColor[][][] cells = coloredCells[orientation][color.ordinal()];
+        if (cells == null) {
+            boolean[][][] shape = orientations[orientation];
+            cells = new PieceColor[shape.length][shape[0].length][shape[0][0].length];
+            for (int d = 0; d < shape.length; d++) {
+                for (int h = 0; h < shape[d].length; h++) {
+                    for (int w = 0; w < shape[d][h].length; w++) {
+                        cells[d][h][w] = shape[d][h][w] ? color : PieceColor.Empty;
+                    }
+                }
+            }
+            coloredCells[orientation][color.ordinal()] = cells;
+        }
+        return cells;
+    }
+
+    /**
+     * Exact integer counterpart of rotating the (depth, height, width) coordinates by a quarter turn around the
+     * given axis, followed by a translation back to the origin.
+     */
+    private static boolean[][][] rotate(boolean[][][] shape, RotationAxis axis, boolean reverse) {
+        int sign = reverse ? -1 : 1;
+        List<int[]> cells = new ArrayList<>();
+
+        for (int d = 0; d < shape.length; d++) {
+            for (int h = 0; h < shape[d].length; h++) {
+                for (int w = 0; w < shape[d][h].length; w++) {
+                    if (shape[d][h][w]) {
+                        cells.add(switch (axis) {
+                            case X -> new int[]{d, -sign * w, sign * h};
+                            case Y -> new int[]{sign * w, h, -sign * d};
+                            case Z -> new int[]{-sign * h, sign * d, w};
+                        });
+                    }
+                }
+            }
+        }
+
+        return fromCells(cells);
+    }
+
+    private static boolean[][][] normalize(boolean[][][] shape) {
+        List<int[]> cells = new ArrayList<>();
+        for (int d = 0; d < shape.length; d++) {
+            for (int h = 0; h < shape[d].length; h++) {
+                for (int w = 0; w < shape[d][h].length; w++) {
+                    if (shape[d][h][w]) {
+                        cells.add(new int[]{d, h, w});
+                    }
+                }
+            }
+        }
+
+        if (cells.isEmpty()) {
+            throw new IllegalArgumentException("A piece needs at least one cell");
+        }
+        return fromCells(cells);
+    }
+
+    private static boolean[][][] fromCells(List<int[]> cells) {
+        int[] min = {Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE};
+        int[] max = {Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE};
+        for (int[] cell : cells) {
+            for (int i = 0; i < 3; i++) {
+                min[i] = Math.min(min[i], cell[i]);
+                max[i] = Math.max(max[i], cell[i]);
+            }
+        }
+
+        boolean[][][] shape = new boolean[max[0] - min[0] + 1][max[1] - min[1] + 1][max[2] - min[2] + 1];
+        for (int[] cell : cells) {
+            shape[cell[0] - min[0]][cell[1] - min[1]][cell[2] - min[2]] = true;
+        }
+        return shape;
+    }
+
+    private static int indexOf(List<boolean[][][]> shapes, boolean[][][] shape) {
+        for (int i = 0; i < shapes.size(); i++) {
+            if (Arrays.deepEquals(shapes.get(i), shape)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int[] packVoxels(boolean[][][] shape) {
+        List<Integer> packed = new ArrayList<>();
+        for (int d = 0; d < shape.length; d++) {
+            for (int h = 0; h < shape[d].length; h++) {
+                for (int w = 0; w < shape[d][h].length; w++) {
+                    if (shape[d][h][w]) {
+                        packed.add(w | h << 8 | d << 16);
+                    }
+                }
+            }
+        }
+        return packed.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static int[] bottomProfile(boolean[][][] shape) {
+        int depth = shape.length;
+        int height = shape[0].length;
+        int width = shape[0][0].length;
+        int[] bottom = new int[depth * width];
+        Arrays.fill(bottom, height);
+
+        for (int d = 0; d < depth; d++) {
+            for (int w = 0; w < width; w++) {
+                for (int h = height - 1; h >= 0; h--) {
+                    if (shape[d][h][w]) {
+                        bottom[d * width + w] = h;
+                    }
+                }
+            }
+        }
+        return bottom;
+    }
+
+    private static String key(boolean[][][] shape) {
+        return Arrays.deepToString(shape);
+    }
+}
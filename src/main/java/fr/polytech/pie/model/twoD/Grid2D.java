@@ -1,27 +1,49 @@
 package fr.polytech.pie.model.twoD;
 
+import fr.polytech.pie.model.Feature;
 import fr.polytech.pie.model.Piece;
 import fr.polytech.pie.model.PieceColor;
 import fr.polytech.pie.model.Grid;
+import fr.polytech.pie.model.Placements;
 import fr.polytech.pie.model.TetrisVector;
 
 import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Set;
 
 public class Grid2D extends Grid {
-    private final PieceColor[][] grid;
+    /**
+     * Occupancy of each row as a bit mask, bit {@code x} being column {@code x}.
+     */
+    private final long[] rows;
+    /**
+     * Colors of the cells, only meaningful where the matching bit of {@link #rows} is set.
+     */
+    private final PieceColor[][] colors;
+    private final long fullRowMask;
     private final int[] heightCache;
     private final int[] holesCache;
+    private final int[] rowCounts;
+    private int fullRows;
+    private int aggregateHeight;
+    private int bumpiness;
+    private int holes;
+    private final int[] wellDepths;
 
     public Grid2D(TetrisVector size) {
         super(size);
-        this.grid = new PieceColor[size.getY()][size.getX()];
+        if (size.getX() > Long.SIZE) {
+            throw new IllegalArgumentException("Grid2D supports at most " + Long.SIZE + " columns but got " + size.getX());
+        }
+
+        this.rows = new long[size.getY()];
+        this.colors = new PieceColor[size.getY()][size.getX()];
+        this.fullRowMask = size.getX() == Long.SIZE ? -1L : (1L << size.getX()) - 1;
         this.heightCache = new int[size.getX()];
         this.holesCache = new int[size.getX()];
+        this.rowCounts = new int[size.getY()];
+        this.wellDepths = new int[size.getX()];
 
         for (int y = 0; y < size.getY(); y++) {
-            Arrays.fill(grid[y], PieceColor.Empty);
+            Arrays.fill(colors[y], PieceColor.Empty);
         }
     }
 
@@ -30,29 +52,42 @@ public class Grid2D extends Grid {
         if (isOutOfBounds(position)) {
             return PieceColor.Empty;
         }
-        return grid[position.getY()][position.getX()];
+        if ((rows[position.getY()] & (1L << position.getX())) == 0) {
+            return PieceColor.Empty;
+        }
+        return colors[position.getY()][position.getX()];
     }
 
     public void setValue(TetrisVector position, PieceColor value) {
         if (!isOutOfBounds(position)) {
-            PieceColor oldValue = grid[position.getY()][position.getX()];
-            grid[position.getY()][position.getX()] = value;
+            int x = position.getX();
+            int y = position.getY();
+            long oldRow = rows[y];
+
+            if (value == PieceColor.Empty) {
+                rows[y] &= ~(1L << x);
+            } else {
+                rows[y] |= 1L << x;
+                colors[y][x] = value;
+            }
 
-            if ((oldValue == PieceColor.Empty && value != PieceColor.Empty) ||
-                (oldValue != PieceColor.Empty && value == PieceColor.Empty)) {
-                updateCache(position.getX());
+            if (rows[y] != oldRow) {
+                hash ^= zobristKey(y * size.getX() + x);
+                changeRowCount(y, value == PieceColor.Empty ? -1 : 1);
+                updateCache(x);
             }
         }
     }
 
     private void updateCache(int x) {
+        long column = 1L << x;
         int height = 0;
         int holes = 0;
         boolean foundBlock = false;
         boolean inHole = false;
 
         for (int y = this.size.getY() - 1; y >= 0; y--) {
-            if (grid[y][x] != PieceColor.Empty) {
+            if ((rows[y] & column) != 0) {
                 if (!foundBlock) {
                     height = y + 1;
                 }
@@ -66,45 +101,122 @@ public class Grid2D extends Grid {
             }
         }
 
-        heightCache[x] = height;
+        int oldHeight = heightCache[x];
+        if (height != oldHeight) {
+            if (x > 0) {
+                bumpiness += Math.abs(height - heightCache[x - 1]) - Math.abs(oldHeight - heightCache[x - 1]);
+            }
+            if (x < size.getX() - 1) {
+                bumpiness += Math.abs(height - heightCache[x + 1]) - Math.abs(oldHeight - heightCache[x + 1]);
+            }
+            aggregateHeight += height - oldHeight;
+            heightCache[x] = height;
+        }
+
+        this.holes += holes - holesCache[x];
         holesCache[x] = holes;
     }
 
+    private void changeRowCount(int y, int delta) {
+        if (rowCounts[y] == size.getX()) {
+            fullRows--;
+        }
+        rowCounts[y] += delta;
+        if (rowCounts[y] == size.getX()) {
+            fullRows++;
+        }
+    }
+
     private void recalculateAllCaches() {
         for (int x = 0; x < size.getX(); x++) {
             updateCache(x);
         }
     }
 
+    private void recalculateHash() {
+        hash = 0;
+        for (int y = 0; y < size.getY(); y++) {
+            hashCells(y, rows[y]);
+        }
+    }
+
+    /**
+     * Toggles the cells of the mask of row {@code y} in the hash.
+     */
+    private void hashCells(int y, long mask) {
+        while (mask != 0) {
+            hash ^= zobristKey(y * size.getX() + Long.numberOfTrailingZeros(mask));
+            mask &= mask - 1;
+        }
+    }
+
+    private void updateCaches(int fromX, int width) {
+        for (int x = Math.max(0, fromX); x < Math.min(size.getX(), fromX + width); x++) {
+            updateCache(x);
+        }
+    }
+
+    /**
+     * Shifts a piece row mask to column {@code x}, dropping the bits that leave the 64 bits of the row.
+     */
+    private static long shiftRow(long mask, int x) {
+        if (x >= Long.SIZE || x <= -Long.SIZE) {
+            return 0;
+        }
+        return x >= 0 ? mask << x : mask >>> -x;
+    }
+
     @Override
     public void freezePiece(Piece piece) {
-        if (!(piece instanceof Piece2D)) {
+        if (!(piece instanceof Piece2D piece2D)) {
             throw new IllegalArgumentException("Expected CurrentPiece2D but got " + piece.getClass().getName());
         }
 
-        PieceColor[][] pieceColor = ((Piece2D) piece).getPiece2d();
-        for (int i = 0; i < piece.getWidth(); i++) {
-            for (int j = 0; j < piece.getHeight(); j++) {
-                if (pieceColor[j][i] != PieceColor.Empty) {
-                    var pos = new TetrisVector(new int[]{i, j});
-                    pos.add(piece.getPosition());
-                    setValue(pos, piece.getColor());
-                }
+        long[] masks = piece2D.getRowMasks();
+        int px = piece.getPosition().getX();
+        int py = piece.getPosition().getY();
+
+        for (int j = 0; j < masks.length; j++) {
+            int y = py + j;
+            if (y < 0 || y >= size.getY()) {
+                continue;
+            }
+
+            long shifted = shiftRow(masks[j], px) & fullRowMask;
+            long added = shifted & ~rows[y];
+            hashCells(y, added);
+            changeRowCount(y, Long.bitCount(added));
+            rows[y] |= shifted;
+            while (shifted != 0) {
+                colors[y][Long.numberOfTrailingZeros(shifted)] = piece.getColor();
+                shifted &= shifted - 1;
             }
         }
+
+        updateCaches(px, piece.getWidth());
     }
 
     @Override
     public void removePiece(Piece piece) {
-        for (int i = 0; i < piece.getWidth(); i++) {
-            for (int j = 0; j < piece.getHeight(); j++) {
-                if (((Piece2D) piece).getPiece2d()[j][i] != PieceColor.Empty) {
-                    var pos = new TetrisVector(new int[]{i, j});
-                    pos.add(piece.getPosition());
-                    setValue(pos, PieceColor.Empty);
-                }
+        if (!(piece instanceof Piece2D piece2D)) {
+            throw new IllegalArgumentException("Expected CurrentPiece2D but got " + piece.getClass().getName());
+        }
+
+        long[] masks = piece2D.getRowMasks();
+        int px = piece.getPosition().getX();
+        int py = piece.getPosition().getY();
+
+        for (int j = 0; j < masks.length; j++) {
+            int y = py + j;
+            if (y >= 0 && y < size.getY()) {
+                long removed = rows[y] & shiftRow(masks[j], px);
+                hashCells(y, removed);
+                changeRowCount(y, -Long.bitCount(removed));
+                rows[y] &= ~removed;
             }
         }
+
+        updateCaches(px, piece.getWidth());
     }
 
     @Override
@@ -113,21 +225,28 @@ public class Grid2D extends Grid {
             throw new IllegalArgumentException("Expected CurrentPiece2D but got " + piece.getClass().getName());
         }
 
-        PieceColor[][] pieceColor = piece2D.getPiece2d();
-        for (int i = 0; i < piece.getWidth(); i++) {
-            for (int j = 0; j < piece.getHeight(); j++) {
-                if (pieceColor[j][i] != PieceColor.Empty) {
-                    var pos = new TetrisVector(new int[]{i, j});
-                    pos.add(piece.getPosition());
+        long[] masks = piece2D.getRowMasks();
+        int px = piece.getPosition().getX();
+        int py = piece.getPosition().getY();
 
-                    if (isOutOfBounds(pos)) {
-                        return true;
-                    }
+        for (int j = 0; j < masks.length; j++) {
+            long mask = masks[j];
+            if (mask == 0) {
+                continue;
+            }
 
-                    if (getValue(pos) != PieceColor.Empty) {
-                        return true;
-                    }
-                }
+            int y = py + j;
+            if (y < 0 || y >= size.getY()) {
+                return true;
+            }
+
+            long shifted = shiftRow(mask, px);
+            if ((shifted & ~fullRowMask) != 0 || Long.bitCount(shifted) != Long.bitCount(mask)) {
+                return true;
+            }
+
+            if ((rows[y] & shifted) != 0) {
+                return true;
             }
         }
         return false;
@@ -135,106 +254,223 @@ public class Grid2D extends Grid {
 
     @Override
     public int clearFullLines() {
-        int linesCleared = clearFullLines(false);
-        if (linesCleared > 0) {
-            recalculateAllCaches();
-        }
-        return linesCleared;
+        return clearFullLines(false);
     }
 
     @Override
     public Grid copy() {
         Grid2D copy = new Grid2D(size);
-        for (int y = 0; y < size.getY(); y++) {
-            System.arraycopy(grid[y], 0, copy.grid[y], 0, size.getX());
+        copy.copyFrom(this);
+        return copy;
+    }
+
+    @Override
+    public void copyFrom(Grid other) {
+        if (!(other instanceof Grid2D grid2D)) {
+            throw new IllegalArgumentException("Expected Grid2D but got " + other.getClass().getName());
         }
 
-        System.arraycopy(heightCache, 0, copy.heightCache, 0, size.getX());
-        System.arraycopy(holesCache, 0, copy.holesCache, 0, size.getX());
+        System.arraycopy(grid2D.rows, 0, rows, 0, size.getY());
+        for (int y = 0; y < size.getY(); y++) {
+            System.arraycopy(grid2D.colors[y], 0, colors[y], 0, size.getX());
+        }
 
-        return copy;
+        System.arraycopy(grid2D.heightCache, 0, heightCache, 0, size.getX());
+        System.arraycopy(grid2D.holesCache, 0, holesCache, 0, size.getX());
+        System.arraycopy(grid2D.rowCounts, 0, rowCounts, 0, size.getY());
+        hash = grid2D.hash;
+        fullRows = grid2D.fullRows;
+        aggregateHeight = grid2D.aggregateHeight;
+        bumpiness = grid2D.bumpiness;
+        holes = grid2D.holes;
     }
 
     @Override
     public int getHoles() {
-        int totalHoles = 0;
-        for (int x = 0; x < size.getX(); x++) {
-            totalHoles += holesCache[x];
-        }
-        return totalHoles;
+        return holes;
+    }
+
+    @Override
+    public int getAggregateHeight() {
+        return aggregateHeight;
+    }
+
+    @Override
+    public int getBumpiness() {
+        return bumpiness;
+    }
+
+    @Override
+    public int getRowFillCount(int y) {
+        return rowCounts[y];
     }
 
     @Override
     public int clearFullLines(boolean dry) {
-        int linesCleared = 0;
+        if (dry || fullRows == 0) {
+            return fullRows;
+        }
 
+        // Compact the remaining rows downwards, moving the color rows of the cleared lines to the top
+        int linesCleared = fullRows;
+        int target = 0;
         for (int y = 0; y < size.getY(); y++) {
-            boolean fullLine = true;
-            for (int x = 0; x < size.getX(); x++) {
-                if (grid[y][x] == PieceColor.Empty) {
-                    fullLine = false;
-                    break;
-                }
+            if (rowCounts[y] == size.getX()) {
+                continue;
             }
 
-            if (fullLine) {
-                linesCleared++;
-                if (!dry) {
-                    for (int i = y; i < size.getY() - 1; i++) {
-                        System.arraycopy(grid[i + 1], 0, grid[i], 0, size.getX());
-                    }
-                    y--;
-                    for (int x = 0; x < size.getX(); x++) {
-                        grid[size.getY() - 1][x] = PieceColor.Empty;
-                    }
-                }
+            if (target != y) {
+                rows[target] = rows[y];
+                rowCounts[target] = rowCounts[y];
+                PieceColor[] colorRow = colors[target];
+                colors[target] = colors[y];
+                colors[y] = colorRow;
             }
+            target++;
         }
 
+        Arrays.fill(rows, target, size.getY(), 0L);
+        Arrays.fill(rowCounts, target, size.getY(), 0);
+        fullRows = 0;
+        recalculateAllCaches();
+        recalculateHash();
+
         return linesCleared;
     }
 
-    public int getHeightOfColumn2D(int x) {
-        return heightCache[x];
+    @Override
+    protected boolean isLineFull(int y) {
+        return rowCounts[y] == size.getX();
     }
 
     @Override
-    public Set<Piece> getPiecesPossibilities(Piece currentPiece) {
-        if (!(currentPiece instanceof Piece2D piece2D)) {
-            throw new IllegalArgumentException("Ai2D can only handle CurrentPiece2D instances");
+    protected void removeLine(int y) {
+        int top = size.getY() - 1;
+        PieceColor[] colorRow = colors[y];
+        if (isLineFull(y)) {
+            fullRows--;
         }
 
-        Set<Piece> possibilities = new HashSet<>();
+        System.arraycopy(rows, y + 1, rows, y, top - y);
+        System.arraycopy(rowCounts, y + 1, rowCounts, y, top - y);
+        System.arraycopy(colors, y + 1, colors, y, top - y);
+        rows[top] = 0;
+        rowCounts[top] = 0;
+        colors[top] = colorRow;
+    }
 
-        // generate rotations
-        Piece2D workingPiece = piece2D.clone();
-        for (int i = 0; i < 4; i++) {
-            workingPiece.rotate2d(_ -> false);
-            workingPiece.getPosition().setY(getHeight() - workingPiece.getHeight());
-            possibilities.add(workingPiece.clone());
-        }
+    @Override
+    protected void insertFullLine(int y) {
+        int top = size.getY() - 1;
+        PieceColor[] colorRow = colors[top];
+
+        System.arraycopy(rows, y, rows, y + 1, top - y);
+        System.arraycopy(rowCounts, y, rowCounts, y + 1, top - y);
+        System.arraycopy(colors, y, colors, y + 1, top - y);
+        rows[y] = fullRowMask;
+        rowCounts[y] = size.getX();
+        colors[y] = colorRow;
+        fullRows++;
+    }
+
+    @Override
+    protected void recalculateFeatures() {
+        recalculateAllCaches();
+        recalculateHash();
+    }
 
-        // generate translations
-        Set<Piece> newTranslations = new HashSet<>();
-        for (var piece : possibilities) {
-            for (int i = 0; i < size.getX(); i++) {
-                Piece translatedPiece = piece.clone();
-                translatedPiece.getPosition().setX(i);
-                if (!checkCollision(translatedPiece)) {
-                    newTranslations.add(translatedPiece);
+    @Override
+    protected void computeLineFeatures(int mask, int[] values) {
+        long leftWall = 1L;
+        long rightWall = 1L << (size.getX() - 1);
+        long inner = fullRowMask >>> 1;
+        boolean cumulative = (mask & Feature.CUMULATIVE_WELLS.bit()) != 0;
+
+        int rowTransitions = 0;
+        int columnTransitions = 0;
+        int wells = 0;
+        int cumulativeWells = 0;
+        long running = 0;
+
+        // From the top, so that well depths grow downwards
+        for (int y = size.getY() - 1; y >= 0; y--) {
+            long row = rows[y];
+            long below = y > 0 ? rows[y - 1] : fullRowMask;
+
+            rowTransitions += Long.bitCount((row ^ (row >>> 1)) & inner)
+                    + ((row & leftWall) == 0 ? 1 : 0) + ((row & rightWall) == 0 ? 1 : 0);
+            columnTransitions += Long.bitCount(row ^ below);
+
+            long well = ~row & ((row << 1) | leftWall) & ((row >>> 1) | rightWall) & fullRowMask;
+            wells += Long.bitCount(well);
+
+            if (cumulative) {
+                for (long ended = running & ~well; ended != 0; ended &= ended - 1) {
+                    wellDepths[Long.numberOfTrailingZeros(ended)] = 0;
+                }
+                for (long bits = well; bits != 0; bits &= bits - 1) {
+                    cumulativeWells += ++wellDepths[Long.numberOfTrailingZeros(bits)];
                 }
+                running = well;
             }
         }
-        possibilities = newTranslations;
 
-        // drop the pieces
-        for (var piece : possibilities) {
-            do {
-                piece.getPosition().setY(piece.getPosition().getY() - 1);
-            } while (!checkCollision(piece));
-            piece.getPosition().setY(piece.getPosition().getY() + 1);
+        for (long bits = running; bits != 0; bits &= bits - 1) {
+            wellDepths[Long.numberOfTrailingZeros(bits)] = 0;
+        }
+
+        values[Feature.ROW_TRANSITIONS.ordinal()] = rowTransitions;
+        values[Feature.COLUMN_TRANSITIONS.ordinal()] = columnTransitions;
+        values[Feature.WELLS.ordinal()] = wells;
+        values[Feature.CUMULATIVE_WELLS.ordinal()] = cumulativeWells;
+    }
+
+    @Override
+    protected int countCellsInFullLines(Piece piece) {
+        long[] masks = ((Piece2D) piece).getRowMasks();
+        int py = piece.getPosition().getY();
+        int cells = 0;
+
+        for (int j = 0; j < masks.length; j++) {
+            int y = py + j;
+            if (y >= 0 && y < size.getY() && isLineFull(y)) {
+                cells += Long.bitCount(masks[j]);
+            }
         }
+        return cells;
+    }
 
-        return possibilities;
+    public int getHeightOfColumn2D(int x) {
+        return heightCache[x];
+    }
+
+    @Override
+    public void getPlacements(Piece piece, Placements placements) {
+        if (!(piece instanceof Piece2D piece2D)) {
+            throw new IllegalArgumentException("Grid2D can only place Piece2D instances");
+        }
+
+        placements.clear();
+
+        RotationTable2D rotations = piece2D.getRotations();
+        for (int orientation = 0; orientation < rotations.getOrientationCount(); orientation++) {
+            int width = rotations.getWidth(orientation);
+            int height = rotations.getHeight(orientation);
+            int[] bottom = rotations.getBottomProfile(orientation);
+
+            for (int x = 0; x <= size.getX() - width; x++) {
+                // The piece rests on the column that stops it first
+                int y = 0;
+                for (int column = 0; column < width; column++) {
+                    if (bottom[column] < height) {
+                        y = Math.max(y, heightCache[x + column] - bottom[column]);
+                    }
+                }
+
+                if (y + height <= size.getY()) {
+                    placements.add(orientation, x, y, 0);
+                }
+            }
+        }
     }
-}
\ No newline at end of file
+}
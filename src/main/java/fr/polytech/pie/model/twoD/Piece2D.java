@@ -7,27 +7,79 @@ import fr.polytech.pie.model.TetrisVector;
 import java.util.function.Predicate;
 
 public class Piece2D extends Piece {
+    private static final TetrisVector[] WALL_KICK = {
+            new TetrisVector(new int[]{-1, 0}),
+            new TetrisVector(new int[]{-1, 1}),
+            new TetrisVector(new int[]{0, -2}),
+            new TetrisVector(new int[]{1, -2})
+    };
+    private static final TetrisVector[] I_WALL_KICK = {
+            new TetrisVector(new int[]{-2, 0}),
+            new TetrisVector(new int[]{1, 0}),
+            new TetrisVector(new int[]{-2, -1}),
+            new TetrisVector(new int[]{1, 2})
+    };
+    private static final TetrisVector I_SHIFT = new TetrisVector(new int[]{1, 0});
+
+    private final RotationTable2D rotations;
+    private int orientation;
     private PieceColor[][] pieceColor;
 
     public Piece2D(boolean[][] piece, TetrisVector position) {
-        super(position);
-        this.pieceColor = new PieceColor[piece.length][piece[0].length];
-        for (int i = 0; i < piece.length; i++) {
-            for (int j = 0; j < piece[i].length; j++) {
-                if (piece[i][j]) {
-                    this.pieceColor[i][j] = color;
-                } else {
-                    this.pieceColor[i][j] = PieceColor.Empty;
-                }
-            }
-        }
+        this(RotationTable2D.of(piece), 0, position);
     }
 
+    public Piece2D(RotationTable2D rotations, int orientation, TetrisVector position) {
+        super(position);
+        this.rotations = rotations;
+        this.orientation = orientation;
+        this.pieceColor = rotations.getCells(orientation, color);
+    }
 
+    /**
+     * Cells of the piece, indexed {@code [y][x]}. The array is shared between pieces and must not be modified.
+     */
     public PieceColor[][] getPiece2d() {
         return pieceColor;
     }
 
+    /**
+     * Occupancy of each row of the piece as a bit mask, bit {@code i} being column {@code i}.
+     * The array is shared between pieces and must not be modified.
+     */
+    public long[] getRowMasks() {
+        return rotations.getRowMasks(orientation);
+    }
+
+    public RotationTable2D getRotations() {
+        return rotations;
+    }
+
+    @Override
+    public int getOrientation() {
+        return orientation;
+    }
+
+    @Override
+    public void setOrientation(int orientation) {
+        this.orientation = orientation;
+        this.pieceColor = rotations.getCells(orientation, color);
+    }
+
+    @Override
+    public int getOrientationCount() {
+        return rotations.getOrientationCount();
+    }
+
+    @Override
+    public int getCellCount() {
+        int cells = 0;
+        for (long row : getRowMasks()) {
+            cells += Long.bitCount(row);
+        }
+        return cells;
+    }
+
     @Override
     public int getWidth() {
         return pieceColor[0].length;
@@ -39,37 +91,18 @@ public class Piece2D extends Piece {
     }
 
     public void rotate2d(Predicate<Piece> collisionChecker) {
-        var original = clone();
-
-        PieceColor[][] rotatedPieceColor = new PieceColor[getWidth()][getHeight()];
+        int original = orientation;
 
-        for (int i = 0; i < getWidth(); i++) {
-            for (int j = 0; j < getHeight(); j++) {
-                rotatedPieceColor[getWidth() - 1 - i][j] = pieceColor[j][i];
-            }
-        }
+        setOrientation(rotations.rotate(orientation));
 
-        pieceColor = rotatedPieceColor;
-
-        TetrisVector[] wallKick = {
-                new TetrisVector(new int[]{-1, 0}),
-                new TetrisVector(new int[]{-1, 1}),
-                new TetrisVector(new int[]{0, -2}),
-                new TetrisVector(new int[]{1, -2})
-        };
-        TetrisVector[] iWallKick = {
-                new TetrisVector(new int[]{-2, 0}),
-                new TetrisVector(new int[]{1, 0}),
-                new TetrisVector(new int[]{-2, -1}),
-                new TetrisVector(new int[]{1, 2})
-        };
+        TetrisVector[] wallKick = WALL_KICK;
         if (getWidth() == 4 || getHeight() == 4) {
             if (getWidth() == 4) {
-                position.subtract(new TetrisVector(new int[]{1, 0}));
+                position.subtract(I_SHIFT);
             } else if (getHeight() == 4) {
-                position.add(new TetrisVector(new int[]{1, 0}));
+                position.add(I_SHIFT);
             }
-            wallKick = iWallKick;
+            wallKick = I_WALL_KICK;
         }
 
         if (collisionChecker.test(this)) {
@@ -85,19 +118,12 @@ public class Piece2D extends Piece {
 
         // Check if the rotation causes a collision
         if (collisionChecker.test(this)) {
-            pieceColor = original.getPiece2d();
+            setOrientation(original);
         }
     }
 
     @Override
     public Piece2D clone() {
-        Piece2D clone = (Piece2D) super.clone();
-
-        clone.pieceColor = new PieceColor[pieceColor.length][];
-        for (int i = 0; i < pieceColor.length; i++) {
-            clone.pieceColor[i] = pieceColor[i].clone();
-        }
-
-        return clone;
+        return (Piece2D) super.clone();
     }
 }
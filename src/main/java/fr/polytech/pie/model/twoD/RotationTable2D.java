@@ -0,0 +1,185 @@
+package fr.polytech.pie.model.twoD;
+
+import fr.polytech.pie.model.PieceColor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Precomputed distinct orientations of a 2D shape under quarter turns (1 for O, 2 for I/S/Z, 4 for T/L/J), with
+ * their bounding boxes, row masks and column profiles.
+ * Cells are indexed {@code [y][x]} like {@link Piece2D#getPiece2d()}.
+ */
+public final class RotationTable2D {
+    private static final Map<String, RotationTable2D> TABLES = new ConcurrentHashMap<>();
+
+    private final boolean[][][] orientations;
+    private final int[] transitions;
+    private final long[][] rowMasks;
+    private final int[][] bottomProfiles;
+    private final int[][] topProfiles;
+    private final PieceColor[][][][] coloredCells;
+
+    private RotationTable2D(boolean[][] shape) {
+        List<boolean[][]> found = new ArrayList<>();
+        List<Integer> foundTransitions = new ArrayList<>();
+        found.add(normalize(shape));
+
+        for (int current = 0; current < found.size(); current++) {
+            boolean[][] rotated = rotate(found.get(current));
+            int index = indexOf(found, rotated);
+            if (index < 0) {
+                index = found.size();
+                found.add(rotated);
+            }
+            foundTransitions.add(index);
+        }
+
+        int count = found.size();
+        this.orientations = found.toArray(new boolean[0][][]);
+        this.transitions = foundTransitions.stream().mapToInt(Integer::intValue).toArray();
+        this.rowMasks = new long[count][];
+        this.bottomProfiles = new int[count][];
+        this.topProfiles = new int[count][];
+        this.coloredCells = new PieceColor[count][PieceColor.values().length][][];
+
+        for (int o = 0; o < count; o++) {
+            boolean[][] cells = orientations[o];
+            int height = cells.length;
+            int width = cells[0].length;
+
+            rowMasks[o] = new long[height];
+            bottomProfiles[o] = new int[width];
+            topProfiles[o] = new int[width];
+            Arrays.fill(bottomProfiles[o], height);
+
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    if (cells[y][x]) {
+                        rowMasks[o][y] |= 1L << x;
+                        bottomProfiles[o][x] = Math.min(bottomProfiles[o][x], y);
+                        topProfiles[o][x] = Math.max(topProfiles[o][x], y + 1);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the table of the given shape, computing it on first use.
+     */
+    public static RotationTable2D of(boolean[][] shape) {
+        return TABLES.computeIfAbsent(Arrays.deepToString(normalize(shape)), _ -> new RotationTable2D(shape));
+    }
+
+    public int getOrientationCount() {
+        return orientations.length;
+    }
+
+    /**
+     * Orientation reached by one {@link Piece2D#rotate2d} quarter turn.
+     */
+    public int rotate(int orientation) {
+        return transitions[orientation];
+    }
+
+    public int getWidth(int orientation) {
+        return orientations[orientation][0].length;
+    }
+
+    public int getHeight(int orientation) {
+        return orientations[orientation].length;
+    }
+
+    /**
+     * Occupancy of each row of the orientation, bit {@code x} being column {@code x}.
+     */
+    public long[] getRowMasks(int orientation) {
+        return rowMasks[orientation];
+    }
+
+    /**
+     * Lowest occupied row of each column of the orientation, or the height of the orientation when the column is
+     * empty.
+     */
+    public int[] getBottomProfile(int orientation) {
+        return bottomProfiles[orientation];
+    }
+
+    /**
+     * One past the highest occupied row of each column of the orientation.
+     */
+    public int[] getTopProfile(int orientation) {
+        return topProfiles[orientation];
+    }
+
+    /**
+     * Cells of the orientation filled with the given color. The returned array is shared and must not be modified.
+     */
+    public PieceColor[][] getCells(int orientation, PieceColor color) {
+        PieceColor[][] cells = coloredCells[orientation][color.ordinal()];
+        if (cells == null) {
+            boolean[][] shape = orientations[orientation];
+            cells = new PieceColor[shape.length][shape[0].length];
+            for (int y = 0; y < shape.length; y++) {
+                for (int x = 0; x < shape[y].length; x++) {
+                    cells[y][x] = shape[y][x] ? color : PieceColor.Empty;
+                }
+            }
+            coloredCells[orientation][color.ordinal()] = cells;
+        }
+        return cells;
+    }
+
+    private static boolean[][] rotate(boolean[][] shape) {
+        int height = shape.length;
+        int width = shape[0].length;
+        boolean[][] rotated = new boolean[width][height];
+
+        for (int i = 0; i < width; i++) {
+            for (int j = 0; j < height; j++) {
+                rotated[width - 1 - i][j] = shape[j][i];
+            }
+        }
+        return rotated;
+    }
+
+    private static boolean[][] normalize(boolean[][] shape) {
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        for (int y = 0; y < shape.length; y++) {
+            for (int x = 0; x < shape[y].length; x++) {
+                if (shape[y][x]) {
+                    minX = Math.min(minX, x);
+                    minY = Math.min(minY, y);
+                    maxX = Math.max(maxX, x);
+                    maxY = Math.max(maxY, y);
+                }
+            }
+        }
+
+        if (maxX < 0) {
+            throw new IllegalArgumentException("A piece needs at least one cell");
+        }
+
+        boolean[][] normalized = new boolean[maxY - minY + 1][maxX - minX + 1];
+        for (int y = minY; y <= maxY; y++) {
+            for (int x = minX; x <= maxX; x++) {
+                normalized[y - minY][x - minX] = shape[y][x];
+            }
+        }
+        return normalized;
+    }
+
+    private static int indexOf(List<boolean[][]> shapes, boolean[][] shape) {
+        for (int i = 0; i < shapes.size(); i++) {
+            if (Arrays.deepEquals(shapes.get(i), shape)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}